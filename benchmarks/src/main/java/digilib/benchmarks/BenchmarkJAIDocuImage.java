@@ -0,0 +1,51 @@
+package digilib.benchmarks;
+
+/*
+ * #%L
+ * Benchmarks of the image operations.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+import digilib.image.JAIDocuImage;
+
+/**
+ * JAIDocuImage with access to its image.
+ *
+ * @author agent
+ *
+ */
+public class BenchmarkJAIDocuImage extends JAIDocuImage {
+
+    public void setImage(RenderedImage img) {
+        this.img = img;
+    }
+
+    /**
+     * Computes the (lazy) JAI operations on the image.
+     *
+     * @return
+     */
+    public Raster render() {
+        return img.getData();
+    }
+
+}
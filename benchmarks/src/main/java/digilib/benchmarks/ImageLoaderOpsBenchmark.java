@@ -0,0 +1,140 @@
+package digilib.benchmarks;
+
+/*
+ * #%L
+ * Benchmarks of the image operations.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import digilib.image.DocuImage.ColorOp;
+import digilib.image.ImageOpException;
+import digilib.io.FileOpException;
+
+/**
+ * Rotation, color operations and encoding with ImageLoaderDocuImage (in
+ * quality q2).
+ *
+ * @author agent
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageLoaderOpsBenchmark {
+
+    @Param({ "1000x750", "4000x3000" })
+    public String size;
+
+    @Param({ "3byte_bgr", "int_rgb", "int_argb", "byte_gray" })
+    public String type;
+
+    protected BufferedImage src;
+
+    /** copy of src for the operations that work in place */
+    protected BufferedImage work;
+
+    protected BenchmarkImageLoaderDocuImage docuImage;
+
+    protected ByteArrayOutputStream ostream;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        src = SyntheticImages.create(size, type);
+        work = SyntheticImages.createCompatible(src);
+        docuImage = new BenchmarkImageLoaderDocuImage();
+        docuImage.setQuality(2);
+        ostream = new ByteArrayOutputStream(src.getWidth() * src.getHeight());
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        src.copyData(work.getRaster());
+        docuImage.setImage(work);
+        ostream.reset();
+    }
+
+    @Benchmark
+    public BufferedImage rotate90() throws ImageOpException {
+        docuImage.rotate(90);
+        return docuImage.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage rotate30() throws ImageOpException {
+        docuImage.rotate(30);
+        return docuImage.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage enhance() throws ImageOpException {
+        docuImage.enhance(1.5f, 10f);
+        return docuImage.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage enhanceRGB() throws ImageOpException {
+        docuImage.enhanceRGB(new float[] { 1.2f, 1f, 0.8f }, new float[] { 10f, 0f, -10f });
+        return docuImage.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage colorOpGrayscale() throws ImageOpException {
+        docuImage.colorOp(ColorOp.GRAYSCALE);
+        return docuImage.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage colorOpInvert() throws ImageOpException {
+        docuImage.colorOp(ColorOp.INVERT);
+        return docuImage.getImage();
+    }
+
+    @Benchmark
+    public int writeJpeg() throws ImageOpException, FileOpException {
+        docuImage.writeImage("image/jpeg", ostream);
+        return ostream.size();
+    }
+
+    @Benchmark
+    public int writePng() throws ImageOpException, FileOpException {
+        docuImage.writeImage("image/png", ostream);
+        return ostream.size();
+    }
+
+}
@@ -0,0 +1,103 @@
+package digilib.benchmarks;
+
+/*
+ * #%L
+ * Benchmarks of the image operations.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import digilib.image.ImageLoaderDocuImage;
+import digilib.image.ImageOpException;
+
+/**
+ * Downscaling by 1/4 with ImageLoaderDocuImage in the different quality
+ * modes: "nearest" (q0), "noprepass" (q1, bicubic), "blur" (q2, blur
+ * pre-pass and bicubic) and the Resampler filters "area", "bicubic" and
+ * "lanczos" (q2).
+ *
+ * @author agent
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageLoaderScaleBenchmark {
+
+    @Param({ "1000x750", "4000x3000" })
+    public String size;
+
+    @Param({ "3byte_bgr", "int_rgb", "int_argb", "byte_gray" })
+    public String type;
+
+    @Param({ "nearest", "noprepass", "blur", "area", "bicubic", "lanczos" })
+    public String mode;
+
+    /** the scaling factor */
+    public static final double SCALE = 0.25;
+
+    protected BufferedImage src;
+
+    protected BenchmarkImageLoaderDocuImage docuImage;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        src = SyntheticImages.create(size, type);
+        docuImage = new BenchmarkImageLoaderDocuImage();
+        if (mode.equals("nearest")) {
+            docuImage.setQuality(0);
+        } else if (mode.equals("noprepass")) {
+            docuImage.setQuality(1);
+        } else {
+            docuImage.setQuality(2);
+        }
+        // "blur" is no Resampler filter and uses the blur pre-pass
+        ImageLoaderDocuImage.setDownscaleFilter(mode);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        docuImage.setImage(src);
+    }
+
+    @Benchmark
+    public BufferedImage scale() throws ImageOpException {
+        docuImage.scale(SCALE, SCALE);
+        return docuImage.getImage();
+    }
+
+}
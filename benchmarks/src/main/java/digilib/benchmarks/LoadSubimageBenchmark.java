@@ -0,0 +1,101 @@
+package digilib.benchmarks;
+
+/*
+ * #%L
+ * Benchmarks of the image operations.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import digilib.image.ImageOpException;
+import digilib.io.FileOpException;
+import digilib.io.ImageFile;
+
+/**
+ * Loading whole images from JPEG and PNG files with subsampling with
+ * ImageLoaderDocuImage and JAIDocuImage.
+ *
+ * @author agent
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LoadSubimageBenchmark {
+
+    @Param({ "1000x750", "4000x3000" })
+    public String size;
+
+    @Param({ "jpeg", "png" })
+    public String format;
+
+    @Param({ "1", "2", "4", "8" })
+    public int subsample;
+
+    protected ImageFile imageFile;
+
+    protected Rectangle region;
+
+    protected BenchmarkImageLoaderDocuImage imageLoader;
+
+    protected BenchmarkJAIDocuImage jai;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BufferedImage src = SyntheticImages.create(size, "int_rgb");
+        imageLoader = new BenchmarkImageLoaderDocuImage();
+        imageFile = SyntheticImages.getImageFile(SyntheticImages.writeTempFile(src, format), imageLoader);
+        region = new Rectangle(0, 0, src.getWidth(), src.getHeight());
+        jai = new BenchmarkJAIDocuImage();
+    }
+
+    @Benchmark
+    public BufferedImage imageLoader() throws FileOpException {
+        imageLoader.loadSubimage(imageFile, region, subsample);
+        return imageLoader.getImage();
+    }
+
+    @Benchmark
+    public Raster jai() throws FileOpException, ImageOpException {
+        jai.loadSubimage(imageFile, region, subsample);
+        return jai.render();
+    }
+
+}
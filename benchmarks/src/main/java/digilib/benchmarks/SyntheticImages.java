@@ -0,0 +1,166 @@
+package digilib.benchmarks;
+
+/*
+ * #%L
+ * Benchmarks of the image operations.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import digilib.image.DocuImage;
+import digilib.io.ImageFile;
+
+/**
+ * Synthetic test images for the benchmarks.
+ *
+ * The images have smooth gradients with some noise so that the encoders have
+ * realistic work to do. The same parameters always give the same image.
+ *
+ * @author agent
+ *
+ */
+public class SyntheticImages {
+
+    /**
+     * Returns the BufferedImage type for a name ("3byte_bgr", "int_rgb",
+     * "int_argb", "byte_gray").
+     *
+     * @param type
+     * @return
+     */
+    public static int parseType(String type) {
+        if (type.equals("3byte_bgr")) {
+            return BufferedImage.TYPE_3BYTE_BGR;
+        } else if (type.equals("int_rgb")) {
+            return BufferedImage.TYPE_INT_RGB;
+        } else if (type.equals("int_argb")) {
+            return BufferedImage.TYPE_INT_ARGB;
+        } else if (type.equals("byte_gray")) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        throw new IllegalArgumentException("Unknown image type: " + type);
+    }
+
+    /**
+     * Returns width and height of a size "WxH".
+     *
+     * @param size
+     * @return
+     */
+    public static int[] parseSize(String size) {
+        String[] wh = size.split("x");
+        return new int[] { Integer.parseInt(wh[0]), Integer.parseInt(wh[1]) };
+    }
+
+    /**
+     * Creates an image of size "WxH" and type name.
+     *
+     * @param size
+     * @param type
+     * @return
+     */
+    public static BufferedImage create(String size, String type) {
+        int[] wh = parseSize(size);
+        return create(wh[0], wh[1], parseType(type));
+    }
+
+    /**
+     * Creates an image of width, height and BufferedImage type.
+     *
+     * @param width
+     * @param height
+     * @param type
+     * @return
+     */
+    public static BufferedImage create(int width, int height, int type) {
+        Random random = new Random(width * 31 + height);
+        int[] row = new int[width];
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int noise = random.nextInt(32) - 16;
+                int r = clamp(x * 255 / width + noise);
+                int g = clamp(y * 255 / height + noise);
+                int b = clamp(((x + y) / 4 & 0xff) + noise);
+                int a = clamp(255 - x * 128 / width);
+                row[x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            img.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return img;
+    }
+
+    private static int clamp(int v) {
+        return (v < 0) ? 0 : ((v > 255) ? 255 : v);
+    }
+
+    /**
+     * Returns an empty image with the same type and size as src.
+     *
+     * @param src
+     * @return
+     */
+    public static BufferedImage createCompatible(BufferedImage src) {
+        ColorModel cm = src.getColorModel();
+        return new BufferedImage(cm, cm.createCompatibleWritableRaster(src.getWidth(), src.getHeight()),
+                cm.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Writes img in format ("jpeg", "png") to a temporary file that is
+     * deleted on exit.
+     *
+     * @param img
+     * @param format
+     * @return
+     * @throws IOException
+     */
+    public static File writeTempFile(BufferedImage img, String format) throws IOException {
+        File f = File.createTempFile("digilib-bench-", "." + format);
+        f.deleteOnExit();
+        if (!ImageIO.write(img, format, f)) {
+            throw new IOException("No writer for " + format);
+        }
+        return f;
+    }
+
+    /**
+     * Returns an identified ImageFile for f.
+     *
+     * @param f
+     * @param docuImage
+     * @return
+     * @throws IOException
+     */
+    public static ImageFile getImageFile(File f, DocuImage docuImage) throws IOException {
+        ImageFile imgFile = new ImageFile(f, null, null);
+        if (docuImage.identify(imgFile) == null) {
+            throw new IOException("Unable to identify " + f);
+        }
+        return imgFile;
+    }
+
+}
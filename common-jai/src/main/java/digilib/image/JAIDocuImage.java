@@ -350,46 +350,27 @@ public class JAIDocuImage extends ImageInfoDocuImage {
 	/* rotates the current image */
 	public void rotate(double angle) throws ImageOpException {
 		RenderedImage rotImg;
+		// optimize rotation by right angles
+		int qt = RasterOps.quarterTurns(angle);
+		if (qt >= 0) {
+			// use Transpose operation
+			transpose(false, false, qt);
+			return;
+		}
 		// convert degrees to radians
 		double rangle = Math.toRadians(angle);
 		double x = img.getWidth() / 2;
 		double y = img.getHeight() / 2;
 
-		// optimize rotation by right angles
-		TransposeType rotOp = null;
-		if (Math.abs(angle - 0) < epsilon) {
-			// 0 degree
-			return;
-		} else if (Math.abs(angle - 90) < epsilon) {
-			// 90 degree
-			rotOp = TransposeDescriptor.ROTATE_90;
-		} else if (Math.abs(angle - 180) < epsilon) {
-			// 180 degree
-			rotOp = TransposeDescriptor.ROTATE_180;
-		} else if (Math.abs(angle - 270) < epsilon) {
-			// 270 degree
-			rotOp = TransposeDescriptor.ROTATE_270;
-		} else if (Math.abs(angle - 360) < epsilon) {
-			// 360 degree
-			return;
-		}
-		if (rotOp != null) {
-			// use Transpose operation
-			ParameterBlock pb = new ParameterBlock();
-			pb.addSource(img);
-			pb.add(rotOp);
-			rotImg = JAI.create("transpose", pb);
-		} else {
-			// setup "normal" rotation
-			ParameterBlock param = new ParameterBlock();
-			param.addSource(img);
-			param.add((float) x);
-			param.add((float) y);
-			param.add((float) rangle);
-			param.add(interpol);
-
-			rotImg = JAI.create("rotate", param);
-		}
+		// setup "normal" rotation
+		ParameterBlock param = new ParameterBlock();
+		param.addSource(img);
+		param.add((float) x);
+		param.add((float) y);
+		param.add((float) rangle);
+		param.add(interpol);
+
+		rotImg = JAI.create("rotate", param);
 
 		logger.debug("ROTATE: " + x + "," + y + ", " + angle + " (" + rangle
 				+ ")" + " ->" + rotImg.getWidth() + "x" + rotImg.getHeight());
@@ -400,35 +381,84 @@ public class JAIDocuImage extends ImageInfoDocuImage {
 	 * mirrors the current image works only horizontal and vertical
 	 */
 	public void mirror(double angle) throws ImageOpException {
-		RenderedImage mirImg;
 		// only mirroring by right angles
-		TransposeType rotOp = null;
-		if (Math.abs(angle) < epsilon) {
-			// 0 degree
-			rotOp = TransposeDescriptor.FLIP_HORIZONTAL;
-		} else if (Math.abs(angle - 90) < epsilon) {
-			// 90 degree
-			rotOp = TransposeDescriptor.FLIP_VERTICAL;
-		} else if (Math.abs(angle - 180) < epsilon) {
-			// 180 degree
-			rotOp = TransposeDescriptor.FLIP_HORIZONTAL;
-		} else if (Math.abs(angle - 270) < epsilon) {
-			// 270 degree
-			rotOp = TransposeDescriptor.FLIP_VERTICAL;
-		} else if (Math.abs(angle - 360) < epsilon) {
-			// 360 degree
-			rotOp = TransposeDescriptor.FLIP_HORIZONTAL;
+		int qt = RasterOps.quarterTurns(angle);
+		if (qt < 0) {
+			logger.error("invalid mirror angle " + angle);
+			return;
+		}
+		// 0 and 180 degree horizontal, 90 and 270 degree vertical
+		transpose(qt % 2 == 0, qt % 2 == 1, 0);
+	}
+
+	/*
+	 * scales, mirrors and rotates the current image using a single Transpose
+	 * operation for mirroring and rotation by right angles
+	 */
+	@Override
+	public void transform(double scaleX, double scaleY, boolean hmir,
+			boolean vmir, double angle) throws ImageOpException {
+		scale(scaleX, scaleY);
+		int qt = RasterOps.quarterTurns(angle);
+		if (qt >= 0) {
+			transpose(hmir, vmir, qt);
+		} else {
+			transpose(hmir, vmir, 0);
+			rotate(angle);
+		}
+	}
+
+	/**
+	 * Mirrors (horizontally, then vertically) and rotates the current image by
+	 * quarterTurns times 90 degree clockwise with one Transpose operation.
+	 * 
+	 * @param hmir
+	 * @param vmir
+	 * @param quarterTurns
+	 * @throws ImageOpException
+	 */
+	protected void transpose(boolean hmir, boolean vmir, int quarterTurns)
+			throws ImageOpException {
+		int qt = quarterTurns;
+		if (vmir) {
+			// vertical flip = horizontal flip and rotation by 180 degree
+			hmir = !hmir;
+			qt += 2;
+		}
+		qt = qt % 4;
+		TransposeType op = null;
+		if (!hmir) {
+			if (qt == 1) {
+				op = TransposeDescriptor.ROTATE_90;
+			} else if (qt == 2) {
+				op = TransposeDescriptor.ROTATE_180;
+			} else if (qt == 3) {
+				op = TransposeDescriptor.ROTATE_270;
+			}
+		} else {
+			if (qt == 0) {
+				op = TransposeDescriptor.FLIP_HORIZONTAL;
+			} else if (qt == 1) {
+				op = TransposeDescriptor.FLIP_ANTIDIAGONAL;
+			} else if (qt == 2) {
+				op = TransposeDescriptor.FLIP_VERTICAL;
+			} else {
+				op = TransposeDescriptor.FLIP_DIAGONAL;
+			}
+		}
+		if (op == null) {
+			// nothing to do
+			return;
 		}
-		// use Transpose operation
 		ParameterBlock param = new ParameterBlock();
 		param.addSource(img);
-		param.add(rotOp);
-		mirImg = JAI.create("transpose", param);
-
-		if (mirImg == null) {
-			throw new ImageOpException("Unable to flip");
+		param.add(op);
+		RenderedImage trImg = JAI.create("transpose", param);
+		if (trImg == null) {
+			throw new ImageOpException("Unable to transpose");
 		}
-		img = mirImg;
+		logger.debug("TRANSPOSE: " + op + " ->" + trImg.getWidth() + "x" + trImg.getHeight());
+		img = trImg;
 	}
 
 	/* contrast and brightness enhancement */
@@ -38,6 +38,9 @@ import org.apache.log4j.Logger;
 
 import digilib.image.DocuImage;
 import digilib.image.DocuImageFactory;
+import digilib.image.ImageCodecPool;
+import digilib.image.ImageLoaderDocuImage;
+import digilib.image.TiffPyramid;
 import digilib.util.Parameter;
 import digilib.util.ParameterMap;
 
@@ -86,6 +89,12 @@ public class DigilibConfiguration extends ParameterMap {
         newParameter("subsample-minimum", new Float(2f), null, 'f');
         // default scaling quality
         newParameter("default-quality", new Integer(2), null, 'f');
+        // filter for high quality downscaling (area, bicubic, lanczos or blur)
+        newParameter("downscale-filter", "area", null, 'f');
+        // number of pooled ImageIO readers and writers per mime-type (0 means no pooling)
+        newParameter("img-codec-pool-size", new Integer(8), null, 'f');
+        // use the levels of pyramidal TIFF files as resolutions
+        newParameter("img-pyramid-allowed", Boolean.TRUE, null, 'f');
         // maximum destination image size (0 means no limit)
         newParameter("max-image-size", new Integer(0), null, 'f');
         // allow image toolkit to use disk cache
@@ -181,6 +190,13 @@ public class DigilibConfiguration extends ParameterMap {
         } catch (ClassNotFoundException e) {
             logger.error("Error setting DocuImage class!");
         }
+        // filter for high quality downscaling
+        ImageLoaderDocuImage.setDownscaleFilter(getAsString("downscale-filter"));
+        // pool of ImageIO readers and writers
+        ImageCodecPool.setMaxPoolSize(getAsInt("img-codec-pool-size"));
+        // pyramid levels only work if the image toolkit can read them
+        DocuImage pdi = DocuImageFactory.getInstance();
+        TiffPyramid.setEnabled(getAsBoolean("img-pyramid-allowed") && pdi != null && pdi.isImageIndexSupported());
         // disk cache for image toolkit
         boolean dc = getAsBoolean("img-diskcache-allowed");
         // TODO: methods for all toolkits?
@@ -62,6 +62,14 @@ public interface DocuImage {
      */
     public boolean isSubimageSupported();
 
+    /**
+     * This DocuImage can load images other than the first from multi-image
+     * files (see ImageInput.getImageIndex()).
+     * 
+     * @return boolean
+     */
+    public boolean isImageIndexSupported();
+
     /**
      * Load only a subsampled region of the image file.
      * 
@@ -202,6 +210,29 @@ public interface DocuImage {
      */
     public void mirror(double angle) throws ImageOpException;
 
+    /**
+     * Scales, mirrors and rotates the current image.
+     * 
+     * Replaces the current image with the result of scale(scaleX, scaleY),
+     * followed by mirror(0) if <code>hmir</code> is set, mirror(90) if
+     * <code>vmir</code> is set and rotate(angle). Implementations may combine
+     * the operations to avoid intermediate images.
+     * 
+     * @param scaleX
+     *            horizontal scaling factor
+     * @param scaleY
+     *            vertical scaling factor
+     * @param hmir
+     *            mirror horizontally
+     * @param vmir
+     *            mirror vertically
+     * @param angle
+     *            rotation angle in degree
+     * @throws ImageOpException
+     */
+    public void transform(double scaleX, double scaleY, boolean hmir, boolean vmir, double angle)
+            throws ImageOpException;
+
     /**
      * Enhances brightness and contrast of the current image.
      * 
@@ -277,6 +308,14 @@ public interface DocuImage {
      */
     public void setQuality(int quality);
 
+    /**
+     * Sets if faster (bilinear) interpolation should be used instead of the
+     * interpolation for the quality. Implementations may ignore this.
+     * 
+     * @param fast
+     */
+    public void setFastInterpolation(boolean fast);
+
     /**
      * Frees all resources bound to the DocuImage.
      * 
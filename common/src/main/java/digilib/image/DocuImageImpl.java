@@ -60,6 +60,9 @@ public abstract class DocuImageImpl implements DocuImage {
     /** Interpolation quality. */
     protected int quality = 0;
 
+    /** use faster interpolation */
+    protected boolean fastInterpolation = false;
+
     /** epsilon for float comparisons. */
     public static final double epsilon = 1e-5;
 
@@ -96,6 +99,15 @@ public abstract class DocuImageImpl implements DocuImage {
         this.quality = quality;
     }
 
+    /**
+     * Sets if faster interpolation should be used.
+     * 
+     * @param fast
+     */
+    public void setFastInterpolation(boolean fast) {
+        this.fastInterpolation = fast;
+    }
+
     /**
      * Crop and scale the current image.
      * 
@@ -125,6 +137,28 @@ public abstract class DocuImageImpl implements DocuImage {
         scale(scale, scale);
     }
 
+    /**
+     * Scale, mirror and rotate the current image.
+     * 
+     * The default implementation calls scale, mirror and rotate one after the
+     * other.
+     * 
+     * @see digilib.image.DocuImage#transform(double, double, boolean, boolean, double)
+     */
+    public void transform(double scaleX, double scaleY, boolean hmir, boolean vmir, double angle)
+            throws ImageOpException {
+        scale(scaleX, scaleY);
+        if (hmir) {
+            mirror(0);
+        }
+        if (vmir) {
+            mirror(90);
+        }
+        if (angle != 0d) {
+            rotate(angle);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -168,6 +202,11 @@ public abstract class DocuImageImpl implements DocuImage {
         // empty implementation
     }
 
+    public boolean isImageIndexSupported() {
+        // only the first image per default
+        return false;
+    }
+
     public void enhanceRGB(float[] rgbm, float[] rgba) throws ImageOpException {
         // emtpy implementation
     }
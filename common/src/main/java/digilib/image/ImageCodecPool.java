@@ -0,0 +1,214 @@
+package digilib.image;
+
+/*
+ * #%L
+ * Pool of ImageIO readers and writers.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of ImageIO ImageReaders and ImageWriters by mime-type.
+ *
+ * Readers and writers are taken from the pool with getReader/getWriter and
+ * have to be returned with releaseReader/releaseWriter. Returned instances are
+ * reset. If the pool for a mime-type is full, returned instances are disposed.
+ *
+ * @author agent
+ *
+ */
+public class ImageCodecPool {
+
+    private static Logger logger = Logger.getLogger(ImageCodecPool.class);
+
+    /** max number of pooled instances per mime-type */
+    protected static int maxPoolSize = 8;
+
+    /** pooled readers by mime-type */
+    protected static ConcurrentMap<String, BlockingQueue<ImageReader>> readers = new ConcurrentHashMap<String, BlockingQueue<ImageReader>>();
+
+    /** pooled writers by mime-type */
+    protected static ConcurrentMap<String, BlockingQueue<ImageWriter>> writers = new ConcurrentHashMap<String, BlockingQueue<ImageWriter>>();
+
+    protected static AtomicInteger readerHits = new AtomicInteger(0);
+    protected static AtomicInteger readerMisses = new AtomicInteger(0);
+    protected static AtomicInteger writerHits = new AtomicInteger(0);
+    protected static AtomicInteger writerMisses = new AtomicInteger(0);
+
+    /**
+     * Returns the pool for type mt from map.
+     */
+    protected static <T> BlockingQueue<T> getPool(ConcurrentMap<String, BlockingQueue<T>> map, String mt) {
+        BlockingQueue<T> pool = map.get(mt);
+        if (pool == null) {
+            BlockingQueue<T> newPool = new ArrayBlockingQueue<T>(Math.max(maxPoolSize, 1));
+            pool = map.putIfAbsent(mt, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Returns an ImageReader for mime-type mt or null if there is none.
+     *
+     * @param mt
+     * @return
+     */
+    public static ImageReader getReader(String mt) {
+        ImageReader reader = getPool(readers, mt).poll();
+        if (reader != null) {
+            readerHits.incrementAndGet();
+            return reader;
+        }
+        readerMisses.incrementAndGet();
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByMIMEType(mt);
+        if (readers.hasNext()) {
+            reader = readers.next();
+            logger.debug("new ImageReader for " + mt + ": " + reader.getClass());
+        }
+        return reader;
+    }
+
+    /**
+     * Resets the ImageReader for mime-type mt and returns it to the pool.
+     *
+     * @param mt
+     * @param reader
+     */
+    public static void releaseReader(String mt, ImageReader reader) {
+        if (reader == null) {
+            return;
+        }
+        if (mt == null || maxPoolSize < 1) {
+            reader.dispose();
+            return;
+        }
+        reader.reset();
+        if (!getPool(readers, mt).offer(reader)) {
+            // pool is full
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Returns an ImageWriter for mime-type mt or null if there is none.
+     *
+     * @param mt
+     * @return
+     */
+    public static ImageWriter getWriter(String mt) {
+        ImageWriter writer = getPool(writers, mt).poll();
+        if (writer != null) {
+            writerHits.incrementAndGet();
+            return writer;
+        }
+        writerMisses.incrementAndGet();
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(mt);
+        if (writers.hasNext()) {
+            writer = writers.next();
+            logger.debug("new ImageWriter for " + mt + ": " + writer.getClass());
+        }
+        return writer;
+    }
+
+    /**
+     * Resets the ImageWriter for mime-type mt and returns it to the pool.
+     *
+     * @param mt
+     * @param writer
+     */
+    public static void releaseWriter(String mt, ImageWriter writer) {
+        if (writer == null) {
+            return;
+        }
+        if (mt == null || maxPoolSize < 1) {
+            writer.dispose();
+            return;
+        }
+        writer.reset();
+        if (!getPool(writers, mt).offer(writer)) {
+            // pool is full
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Sets the max number of pooled instances per mime-type (0 disables
+     * pooling). Disposes all currently pooled instances.
+     *
+     * @param size
+     */
+    public static void setMaxPoolSize(int size) {
+        maxPoolSize = size;
+        clear();
+    }
+
+    /**
+     * Disposes all pooled instances.
+     */
+    public static void clear() {
+        for (BlockingQueue<ImageReader> pool : readers.values()) {
+            for (ImageReader r = pool.poll(); r != null; r = pool.poll()) {
+                r.dispose();
+            }
+        }
+        readers.clear();
+        for (BlockingQueue<ImageWriter> pool : writers.values()) {
+            for (ImageWriter w = pool.poll(); w != null; w = pool.poll()) {
+                w.dispose();
+            }
+        }
+        writers.clear();
+    }
+
+    public static int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public static int getReaderHits() {
+        return readerHits.get();
+    }
+
+    public static int getReaderMisses() {
+        return readerMisses.get();
+    }
+
+    public static int getWriterHits() {
+        return writerHits.get();
+    }
+
+    public static int getWriterMisses() {
+        return writerMisses.get();
+    }
+
+}
@@ -32,6 +32,7 @@ import java.io.RandomAccessFile;
 
 import org.devlib.schmidt.imageinfo.ImageInfo;
 
+import digilib.io.ImageInfoIndex;
 import digilib.io.ImageInput;
 import digilib.util.ImageSize;
 
@@ -44,16 +45,26 @@ public abstract class ImageInfoDocuImage extends DocuImageImpl {
 
     /* Check image size and type and store in ImageFile f */
     public ImageInput identify(ImageInput ii) throws IOException {
+        if (ii.getImageIndex() > 0) {
+            // ImageInfo only knows the first image
+            return null;
+        }
+        // try the index first
+        if (ImageInfoIndex.lookup(ii)) {
+            logger.debug("image size from index: " + ii.getSize());
+            return ii;
+        }
         logger.debug("identifying (ImageInfo) " + ii);
         RandomAccessFile raf = null;
         try {
             // set up ImageInfo object
             ImageInfo iif = new ImageInfo();
-            if (ii.hasImageInputStream()) {
-                iif.setInput(ii.getImageInputStream());
-            } else if (ii.hasFile()) {
+            if (ii.hasFile()) {
+                // use the file directly so we can close it
                 raf = new RandomAccessFile(ii.getFile(), "r");
                 iif.setInput(raf);
+            } else if (ii.hasImageInputStream()) {
+                iif.setInput(ii.getImageInputStream());
             } else {
                 return null;
             }
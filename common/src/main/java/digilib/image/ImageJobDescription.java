@@ -40,6 +40,7 @@ import digilib.io.FileOpException;
 import digilib.io.FileOps;
 import digilib.io.ImageInput;
 import digilib.io.ImageSet;
+import digilib.util.AdaptiveQuality;
 import digilib.util.ImageSize;
 import digilib.util.OptionsSet;
 import digilib.util.Parameter;
@@ -78,6 +79,8 @@ public class ImageJobDescription extends ParameterMap {
     Integer paramDW = null;
     Integer paramDH = null;
     DocuDirCache dirCache = null;
+    /** quality degradation level (see AdaptiveQuality) */
+    int degradation = AdaptiveQuality.FULL;
 
     /**
      * create empty ImageJobDescription.
@@ -277,6 +280,17 @@ public class ImageJobDescription extends ParameterMap {
         return input;
     }
 
+    /**
+     * Returns the index of the selected image in the input file, i.e. the
+     * level of a pyramidal TIFF (0 for the first image).
+     * 
+     * @return
+     * @throws IOException
+     */
+    public int getImageIndex() throws IOException {
+        return getInput().getImageIndex();
+    }
+
     /**
      * Returns the DocuDirectory for the input (file).
      * 
@@ -571,9 +585,56 @@ public class ImageJobDescription extends ParameterMap {
             qual = 1;
         else if (hasOption("q2")) 
             qual = 2;
+        // lower quality under load
+        if (degradation >= AdaptiveQuality.NEAREST) {
+            qual = 0;
+        } else if (degradation >= AdaptiveQuality.NO_PREPASS) {
+            qual = Math.min(qual, 1);
+        }
         return qual;
     }
 
+    /**
+     * Returns if faster (bilinear) interpolation should be used.
+     * 
+     * @return
+     */
+    public boolean isFastInterpolation() {
+        return degradation >= AdaptiveQuality.BILINEAR;
+    }
+
+    /**
+     * Returns the quality degradation level (see AdaptiveQuality).
+     * 
+     * @return
+     */
+    public int getDegradation() {
+        return degradation;
+    }
+
+    /**
+     * Sets the quality degradation level (see AdaptiveQuality).
+     * 
+     * @param degradation
+     */
+    public void setDegradation(int degradation) {
+        this.degradation = degradation;
+    }
+
+    /**
+     * Returns a description of the applied quality for the response header:
+     * the scale quality and the degradation level if degraded.
+     * 
+     * @return
+     */
+    public String getQualityDescription() {
+        String q = Integer.toString(getScaleQual());
+        if (degradation > AdaptiveQuality.FULL) {
+            q += "; degraded=" + degradation;
+        }
+        return q;
+    }
+
     public ColorOp getColOp() {
         String op = getAsString("colop");
         if (op == null || op.length() == 0) {
@@ -635,6 +696,118 @@ public class ImageJobDescription extends ParameterMap {
         return outerUserImgArea;
     }
 
+    /**
+     * Returns the subsampling factor for loading the image. Subsampling is
+     * used for downscaling (scaleXY < 1).
+     * 
+     * @return
+     * @throws IOException
+     * @throws ImageOpException
+     */
+    public double getSubsample() throws IOException, ImageOpException {
+        double scale = getScaleXY();
+        if (scale >= 1) {
+            return 1d;
+        }
+        double subf = 1 / scale;
+        // for higher quality reduce subsample factor by minSubsample
+        if (getScaleQual() > 0 && degradation < AdaptiveQuality.MAX_SUBSAMPLE) {
+            return Math.max(Math.floor(subf / dlConfig.getAsFloat("subsample-minimum")), 1d);
+        }
+        return Math.max(Math.floor(subf), 1d);
+    }
+
+    /**
+     * Returns the estimated peak memory of the job in bytes.
+     * 
+     * Counts the loaded (subsampled) area of the source image and the
+     * destination image twice each (for type conversions and intermediate
+     * images) with the bytes per pixel of the source type, and the buffers of
+     * the Resampler if it is used for scaling.
+     * 
+     * Returns -1 if the memory can not be estimated.
+     * 
+     * @return
+     */
+    public long getEstimatedMemory() {
+        try {
+            double srcPixels;
+            double destPixels;
+            long resampleMem = 0;
+            double scale = getScaleXY();
+            DocuImage di = (docuImage != null) ? docuImage : DocuImageFactory.getInstance();
+            if (di != null && !di.isSubimageSupported()) {
+                // the whole image is loaded
+                ImageSize size = getInput().getSize();
+                srcPixels = (double) size.getWidth() * size.getHeight();
+                Rectangle2D area = getOuterUserImgArea();
+                destPixels = area.getWidth() * area.getHeight() * scale * scale;
+            } else {
+                Rectangle2D area = getOuterUserImgArea();
+                double subsamp = getSubsample();
+                double srcWidth = Math.ceil(area.getWidth() / subsamp);
+                double srcHeight = Math.ceil(area.getHeight() / subsamp);
+                srcPixels = srcWidth * srcHeight;
+                destPixels = area.getWidth() * area.getHeight() * scale * scale;
+                Resampler.Filter filter = ImageLoaderDocuImage.getDownscaleFilter();
+                if (di instanceof ImageLoaderDocuImage && filter != null && getScaleQual() > 1
+                        && scale * subsamp < 1) {
+                    // float buffers of the Resampler (8 bit samples only)
+                    resampleMem = Resampler.getBufferMemory((int) srcWidth, (int) srcHeight,
+                            (int) Math.ceil(area.getWidth() * scale), (int) Math.ceil(area.getHeight() * scale),
+                            Math.min(getBytesPerPixel(), 4), filter);
+                }
+            }
+            return (long) ((srcPixels + destPixels) * 2 * getBytesPerPixel()) + resampleMem;
+        } catch (IOException e) {
+            logger.debug("Unable to estimate memory: " + e);
+        } catch (ImageOpException e) {
+            logger.debug("Unable to estimate memory: " + e);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the bytes per pixel of the decoded source image (estimated from
+     * the type).
+     * 
+     * @return
+     * @throws IOException
+     */
+    protected int getBytesPerPixel() throws IOException {
+        String mt = getMimeType();
+        if ("image/jpeg".equals(mt)) {
+            // 8 bit RGB
+            return 3;
+        } else if ("image/tiff".equals(mt)) {
+            // may have 16 bit and alpha
+            return 8;
+        }
+        return 4;
+    }
+
+    /**
+     * Returns the estimated cost of the job as the number of source pixels
+     * times the number of destination pixels (in megapixels).
+     *
+     * Returns -1 if the cost can not be estimated.
+     *
+     * @return
+     */
+    public double getEstimatedCost() {
+        try {
+            Rectangle2D area = getOuterUserImgArea();
+            double srcPixels = area.getWidth() * area.getHeight() / 1e6;
+            double scale = getScaleXY();
+            return srcPixels * (srcPixels * scale * scale);
+        } catch (IOException e) {
+            logger.debug("Unable to estimate cost: " + e);
+        } catch (ImageOpException e) {
+            logger.debug("Unable to estimate cost: " + e);
+        }
+        return -1;
+    }
+
     public float[] getRGBM() {
         float[] paramRGBM = null;// {0f,0f,0f};
         Parameter p = params.get("rgbm");
@@ -705,6 +878,44 @@ public class ImageJobDescription extends ParameterMap {
         return !nt;
     }
 
+    /**
+     * Returns a key identifying the result image of this job for caching.
+     *
+     * The key contains the selected input file, the index of the image in the
+     * file (pyramid level) and its modification time, the source area, the
+     * scale factor, all image operations and the output mime-type. Returns
+     * null if the input is not a file.
+     *
+     * @return
+     * @throws IOException
+     * @throws ImageOpException
+     */
+    public String getImageCacheKey() throws IOException, ImageOpException {
+        ImageInput ii = getInput();
+        if (!ii.hasFile()) {
+            return null;
+        }
+        Rectangle2D area = getOuterUserImgArea();
+        StringBuilder key = new StringBuilder(200);
+        key.append(ii.getFile().getPath());
+        key.append('[').append(getImageIndex()).append(']');
+        key.append('|').append(ii.getFile().lastModified());
+        key.append('|').append(area.getX()).append(',').append(area.getY());
+        key.append(',').append(area.getWidth()).append(',').append(area.getHeight());
+        key.append('|').append(getScaleXY());
+        key.append('|').append(getScaleQual());
+        if (degradation > AdaptiveQuality.FULL) {
+            key.append('~').append(degradation);
+        }
+        key.append('|').append(hasOption("hmir")).append(',').append(hasOption("vmir"));
+        key.append('|').append(getAsFloat("rot"));
+        key.append('|').append(getAsFloat("cont")).append(',').append(getAsFloat("brgt"));
+        key.append('|').append(getAsString("rgbm")).append(',').append(getAsString("rgba"));
+        key.append('|').append(getColOp());
+        key.append('|').append(getOutputMimeType());
+        return key.toString();
+    }
+
     /**
      * @return the docuImage
      */
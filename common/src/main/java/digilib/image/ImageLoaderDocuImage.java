@@ -65,6 +65,8 @@ import digilib.io.FileOpException;
 import digilib.io.FileOps;
 import digilib.io.ImageInput;
 import digilib.util.ImageSize;
+import digilib.util.TraceSpan;
+import digilib.util.Tracing;
 
 /**
  * Implementation of DocuImage using the ImageLoader API of Java 1.4 and Java2D.
@@ -80,6 +82,12 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
     /** the reader object */
     protected ImageReader reader = null;
 
+    /** mime-type of the pooled reader object */
+    protected String readerMimeType = null;
+
+    /** input stream we opened for the reader */
+    protected ImageInputStream readerStream = null;
+
     /** try to reuse reader object */
     public boolean reuseReader = false;
 
@@ -106,6 +114,8 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
     protected static boolean needsMapBgr = false;
     /* set destination type to sRGB if available, even for non-RGB images */
     protected static boolean alwaysSetDestSrgb = false;
+    /* filter for high quality downscaling (null: blur and AffineTransformOp) */
+    protected static Resampler.Filter downscaleFilter = Resampler.Filter.AREA;
 
     static {
         /*
@@ -179,13 +189,21 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
         return true;
     }
 
+    /* images in multi-image files are supported. */
+    public boolean isImageIndexSupported() {
+        return true;
+    }
+
     public void setQuality(int qual) {
         quality = qual;
         renderHint = new RenderingHints(null);
         // hint.put(RenderingHints.KEY_ANTIALIASING,
         // RenderingHints.VALUE_ANTIALIAS_OFF);
         // setup interpolation quality
-        if (qual > 0) {
+        if (qual > 0 && fastInterpolation) {
+            logger.debug("quality q1+ (fast)");
+            renderHint.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        } else if (qual > 0) {
             logger.debug("quality q1+");
             renderHint.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
         } else {
@@ -194,6 +212,13 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
         }
     }
 
+    @Override
+    public void setFastInterpolation(boolean fast) {
+        super.setFastInterpolation(fast);
+        // update the rendering hints
+        setQuality(quality);
+    }
+
     /* returns the size of the current image */
     public ImageSize getSize() {
         if (imageSize == null) {
@@ -203,8 +228,9 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
                 if (img == null) {
                     reader = getReader(input);
                     // get size from ImageReader
-                    h = reader.getHeight(0);
-                    w = reader.getWidth(0);
+                    int idx = input.getImageIndex();
+                    h = reader.getHeight(idx);
+                    w = reader.getWidth(idx);
                 } else {
                     // get size from image
                     h = img.getHeight();
@@ -241,7 +267,8 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
              */
             reader = getReader(input);
             // set size
-            ImageSize d = new ImageSize(reader.getWidth(0), reader.getHeight(0));
+            int idx = input.getImageIndex();
+            ImageSize d = new ImageSize(reader.getWidth(idx), reader.getHeight(idx));
             input.setSize(d);
             // set mime type
             if (input.getMimetype() == null) {
@@ -260,8 +287,8 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
             logger.error("ImageLoaderDocuimage unable to identify:", e);
             return null;
         } finally {
-            if (!reuseReader && reader != null) {
-                reader.dispose();
+            if (!reuseReader) {
+                releaseReader();
             }
         }
     }
@@ -271,7 +298,17 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
         logger.debug("loadImage: " + ii);
         this.input = ii;
         try {
-            if (ii.hasImageInputStream()) {
+            if (ii.getImageIndex() > 0) {
+                // ImageIO.read only reads the first image
+                try {
+                    reader = getReader(ii);
+                    img = reader.read(ii.getImageIndex());
+                } finally {
+                    if (!reuseReader) {
+                        releaseReader();
+                    }
+                }
+            } else if (ii.hasImageInputStream()) {
                 img = ImageIO.read(ii.getImageInputStream());
             } else if (ii.hasFile()) {
                 img = ImageIO.read(ii.getFile());
@@ -287,6 +324,9 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
     /**
      * Get an ImageReader for the image file.
      * 
+     * The reader is taken from the ImageCodecPool and has to be returned with
+     * releaseReader().
+     * 
      * @return
      */
     public ImageReader getReader(ImageInput input) throws IOException {
@@ -295,18 +335,25 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
             logger.debug("reuseing ImageReader");
             return reader;
         }
+        // return old reader
+        releaseReader();
         ImageInputStream istream = null;
         if (input.hasImageInputStream()) {
             // ImageInputStream input
             istream = input.getImageInputStream();
+            if (input.hasFile()) {
+                // ImageFile opens a new stream that we have to close
+                readerStream = istream;
+            }
         } else if (input.hasFile()) {
             // file only input
             RandomAccessFile rf = new RandomAccessFile(input.getFile(), "r");
             istream = new FileImageInputStream(rf);
+            // we have to close it
+            readerStream = istream;
         } else {
             throw new FileOpException("Unable to get data from ImageInput");
         }
-        Iterator<ImageReader> readers;
         String mt = null;
         if (input.hasMimetype()) {
             // check hasMimetype first or we might get into a loop
@@ -315,30 +362,65 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
             // try file extension
             mt = FileOps.mimeForFile(input.getFile());
         }
+        ImageReader reader = null;
         if (mt == null) {
             logger.debug("No mime-type. Trying automagic.");
-            readers = ImageIO.getImageReaders(istream);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(istream);
+            if (readers.hasNext()) {
+                reader = readers.next();
+            }
         } else {
             logger.debug("File type:" + mt);
-            readers = ImageIO.getImageReadersByMIMEType(mt);
+            reader = ImageCodecPool.getReader(mt);
         }
-        if (!readers.hasNext()) {
+        if (reader == null) {
+            closeReaderStream();
             throw new FileOpException("Can't find Reader to load File!");
         }
-        ImageReader reader = readers.next();
         logger.debug("ImageIO: this reader: " + reader.getClass());
-        /*
-         * while (readers.hasNext()) { logger.debug("ImageIO: next reader: " +
-         * readers.next().getClass()); }
-         */
         reader.setInput(istream);
+        this.reader = reader;
+        this.readerMimeType = mt;
         return reader;
     }
 
+    /**
+     * Returns the current ImageReader to the ImageCodecPool and closes the
+     * input stream if we opened it.
+     */
+    protected void releaseReader() {
+        if (reader != null) {
+            ImageCodecPool.releaseReader(readerMimeType, reader);
+            reader = null;
+            readerMimeType = null;
+        }
+        closeReaderStream();
+    }
+
+    /**
+     * Closes the input stream if we opened it.
+     */
+    protected void closeReaderStream() {
+        if (readerStream != null) {
+            try {
+                readerStream.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            readerStream = null;
+        }
+    }
+
     /* Load an image file into the Object. */
     public void loadSubimage(ImageInput ii, Rectangle region, int prescale) throws FileOpException {
         logger.debug("loadSubimage");
         this.input = ii;
+        TraceSpan span = Tracing.begin(Tracing.LOAD_SUBIMAGE);
+        if (ii.hasFile()) {
+            span.setPath(ii.getFile().getPath());
+        }
+        span.setRegion(region.x, region.y, region.width, region.height);
+        span.setSubsample(prescale);
         // ImageReader reader = null;
         try {
             reader = getReader(ii);
@@ -349,7 +431,8 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
                 readParam.setSourceSubsampling(prescale, prescale, 0, 0);
             }
             // try to set target color space to sRGB
-            for (Iterator<ImageTypeSpecifier> i = reader.getImageTypes(0); i.hasNext();) {
+            int idx = ii.getImageIndex();
+            for (Iterator<ImageTypeSpecifier> i = reader.getImageTypes(idx); i.hasNext();) {
                 ImageTypeSpecifier type = (ImageTypeSpecifier) i.next();
                 ColorModel cm = type.getColorModel();
                 ColorSpace cs = cm.getColorSpace();
@@ -367,7 +450,7 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
             }
             // read image
             logger.debug("loadSubimage: loading..");
-            img = reader.read(0, readParam);
+            img = reader.read(idx, readParam);
             logger.debug("loadSubimage: loaded");
             // invalidate image size if it was set
             imageSize = null;
@@ -385,9 +468,10 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
         } catch (IOException e) {
             throw new FileOpException("Unable to load File!", e);
         } finally {
-            if (!reuseReader && reader != null) {
-                reader.dispose();
+            if (!reuseReader) {
+                releaseReader();
             }
+            span.end();
         }
     }
 
@@ -397,9 +481,10 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
         // setup output
         ImageWriter writer = null;
         ImageOutputStream imgout = null;
+        TraceSpan span = Tracing.begin(Tracing.WRITE_IMAGE);
         try {
             imgout = ImageIO.createImageOutputStream(ostream);
-            if (mt == "image/jpeg") {
+            if (mt.equals("image/jpeg")) {
                 /*
                  * JPEG doesn't do transparency so we have to convert any RGBA
                  * image to RGB or we the client will think its CMYK :-( *Java2D
@@ -411,7 +496,7 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
                     rgbImg.createGraphics().drawImage(img, null, 0, 0);
                     img = rgbImg;
                 }
-                writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                writer = ImageCodecPool.getWriter(mt);
                 if (writer == null) {
                     throw new ImageOpException("Unable to get JPEG writer");
                 }
@@ -425,9 +510,9 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
                 // render output
                 logger.debug("writing JPEG");
                 writer.write(null, new IIOImage(img, null, null), param);
-            } else if (mt == "image/png") {
+            } else if (mt.equals("image/png")) {
                 // render output
-                writer = ImageIO.getImageWritersByFormatName("png").next();
+                writer = ImageCodecPool.getWriter(mt);
                 if (writer == null) {
                     throw new ImageOpException("Unable to get PNG writer");
                 }
@@ -438,16 +523,43 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
                 // unknown mime type
                 throw new ImageOpException("Unknown mime type: " + mt);
             }
+            // make sure all data has been written to ostream
+            imgout.flush();
+            span.setBytes(imgout.getStreamPosition());
 
         } catch (IOException e) {
             logger.error("Error writing image:", e);
             throw new FileOpException("Error writing image!", e);
+        } finally {
+            // return writer to the pool
+            ImageCodecPool.releaseWriter(mt, writer);
+            if (imgout != null) {
+                try {
+                    // closes the cache but not ostream
+                    imgout.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+            span.end();
         }
-        // TODO: should we: finally { writer.dispose(); }
     }
 
     public void scale(double scaleX, double scaleY) throws ImageOpException {
         logger.debug("scale: " + scaleX);
+        if (useResampler(scaleX, scaleY)) {
+            /* downscaling in high quality with the Resampler */
+            int w = Math.max((int) Math.ceil(img.getWidth() * scaleX - epsilon), 1);
+            int h = Math.max((int) Math.ceil(img.getHeight() * scaleY - epsilon), 1);
+            BufferedImage scaledImg = Resampler.resample(img, w, h, downscaleFilter);
+            if (scaledImg != null) {
+                img = scaledImg;
+                logger.debug("resampled (" + downscaleFilter + ") to " + img.getWidth() + "x" + img.getHeight() + " img=" + img);
+                // invalidate image size
+                imageSize = null;
+                return;
+            }
+        }
         /* for downscaling in high quality the image is blurred first */
         if ((scaleX <= 0.5) && (quality > 1)) {
             int bl = (int) Math.floor(1 / scaleX);
@@ -461,6 +573,125 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
         imageSize = null;
     }
 
+    /**
+     * Scale, mirror and rotate the current image in one AffineTransformOp.
+     * 
+     * @see digilib.image.DocuImageImpl#transform(double, double, boolean, boolean, double)
+     */
+    @Override
+    public void transform(double scaleX, double scaleY, boolean hmir, boolean vmir, double angle)
+            throws ImageOpException {
+        if (!hmir && !vmir && angle == 0d) {
+            // nothing to combine
+            scale(scaleX, scaleY);
+            return;
+        }
+        logger.debug("transform: scale=" + scaleX + " hmir=" + hmir + " vmir=" + vmir + " rot=" + angle);
+        int qt = RasterOps.quarterTurns(angle);
+        if (qt >= 0 || useResampler(scaleX, scaleY)) {
+            /*
+             * right angles: scale, then mirror and rotate without interpolation.
+             * resampled: scale first, then transform the smaller image.
+             */
+            scale(scaleX, scaleY);
+            BufferedImage trImg = RasterOps.transpose(img, hmir, vmir, Math.max(qt, 0));
+            if (trImg != null) {
+                img = trImg;
+                logger.debug("transposed: " + img);
+                imageSize = null;
+            } else {
+                if (hmir) {
+                    mirror(0);
+                }
+                if (vmir) {
+                    mirror(90);
+                }
+                if (qt > 0) {
+                    rotate(angle);
+                }
+            }
+            if (qt < 0) {
+                rotate(angle);
+            }
+            return;
+        }
+        /* for downscaling in high quality the image is blurred first */
+        if ((scaleX <= 0.5) && (quality > 1)) {
+            int bl = (int) Math.floor(1 / scaleX);
+            blur(bl);
+        }
+        // size of the scaled image
+        double w = img.getWidth() * scaleX;
+        double h = img.getHeight() * scaleY;
+        // transformations in reverse order: last one first
+        AffineTransform trafo = new AffineTransform();
+        if (angle != 0d) {
+            // rotation around the center of the scaled image
+            trafo.rotate(Math.toRadians(angle), w / 2, h / 2);
+        }
+        if (vmir) {
+            trafo.translate(0, h);
+            trafo.scale(1, -1);
+        }
+        if (hmir) {
+            trafo.translate(w, 0);
+            trafo.scale(-1, 1);
+        }
+        trafo.scale(scaleX, scaleY);
+        // see how much of the image would be off screen
+        AffineTransformOp op = new AffineTransformOp(trafo, renderHint);
+        Rectangle2D bounds = op.getBounds2D(img);
+        double xoff = bounds.getX();
+        double yoff = bounds.getY();
+        if (Math.abs(xoff) > epsilon || Math.abs(yoff) > epsilon) {
+            // move image back on screen
+            logger.debug("move transformation: xoff=" + xoff + " yoff=" + yoff);
+            trafo.preConcatenate(AffineTransform.getTranslateInstance(-xoff, -yoff));
+            op = new AffineTransformOp(trafo, renderHint);
+        }
+        // transform image
+        img = op.filter(img, null);
+        logger.debug("transformed to " + img.getWidth() + "x" + img.getHeight() + " img=" + img);
+        // invalidate image size
+        imageSize = null;
+    }
+
+    /**
+     * Returns if scale() uses the Resampler for these scale factors.
+     * 
+     * @param scaleX
+     * @param scaleY
+     * @return
+     */
+    protected boolean useResampler(double scaleX, double scaleY) {
+        return (downscaleFilter != null && quality > 1 && scaleX < 1 && scaleY < 1 && Resampler.isSupported(img));
+    }
+
+    /**
+     * Returns the filter for downscaling in high quality (null means blur and
+     * AffineTransformOp).
+     * 
+     * @return
+     */
+    public static Resampler.Filter getDownscaleFilter() {
+        return downscaleFilter;
+    }
+
+    /**
+     * Sets the filter for downscaling in high quality by name ("area",
+     * "bicubic", "lanczos"). Any other name uses blur and AffineTransformOp.
+     * 
+     * @param filter
+     */
+    public static void setDownscaleFilter(String filter) {
+        try {
+            downscaleFilter = Resampler.Filter.valueOf(filter.toUpperCase());
+        } catch (Exception e) {
+            downscaleFilter = null;
+        }
+        logger.debug("downscale filter: " + downscaleFilter);
+    }
+
     public void blur(int radius) throws ImageOpException {
         logger.debug("blur: " + radius);
         // minimum radius is 2
@@ -502,6 +733,19 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
 
     public void rotate(double angle) throws ImageOpException {
         logger.debug("rotate: " + angle);
+        // rotation by right angles without interpolation
+        int qt = RasterOps.quarterTurns(angle);
+        if (qt == 0) {
+            return;
+        } else if (qt > 0) {
+            BufferedImage rotImg = RasterOps.transpose(img, false, false, qt);
+            if (rotImg != null) {
+                img = rotImg;
+                logger.debug("rotated (transposed): " + img);
+                imageSize = null;
+                return;
+            }
+        }
         // setup rotation
         double rangle = Math.toRadians(angle);
         // center of rotation is center of image
@@ -554,6 +798,13 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
             logger.error("invalid mirror angle " + angle);
             return;
         }
+        // mirror without interpolation
+        BufferedImage mirImg = RasterOps.transpose(img, (mx < 0), (my < 0), 0);
+        if (mirImg != null) {
+            img = mirImg;
+            imageSize = null;
+            return;
+        }
         AffineTransformOp mirOp = new AffineTransformOp(new AffineTransform(mx, 0, 0, my, tx, ty), renderHint);
         img = mirOp.filter(img, null);
         // invalidate image size
@@ -703,9 +954,7 @@ public class ImageLoaderDocuImage extends ImageInfoDocuImage {
     }
 
     public void dispose() {
-        if (reader != null) {
-            reader.dispose();
-        }
+        releaseReader();
         // is this necessary?
         img = null;
     }
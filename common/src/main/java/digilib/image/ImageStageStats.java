@@ -0,0 +1,146 @@
+package digilib.image;
+
+/*
+ * #%L
+ * Timing of image processing stages.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import digilib.util.DigilibMBeans;
+import digilib.util.LatencyHistogram;
+import digilib.util.LatencyHistogramMBean;
+
+/**
+ * Latency histograms of the stages of image jobs by source mime type and
+ * DocuImage implementation.
+ *
+ * Each histogram is registered as MBean
+ * "digilib:type=ImageStage,stage=...,mime=...,backend=..." when it is first
+ * used (if DigilibMBeans is enabled).
+ *
+ * @author agent
+ *
+ */
+public class ImageStageStats {
+
+    /** wait from submitting the job until it runs (without the CPU permit) */
+    public static final String QUEUE = "queue";
+
+    /** wait for a CPU permit of the job center (in I/O mode) */
+    public static final String CPU = "cpu";
+
+    /** reading the size and type of an image file */
+    public static final String IDENTIFY = "identify";
+
+    /** loading (and cropping) the image */
+    public static final String LOAD = "load";
+
+    /** scaling, rotating and mirroring (one operation) */
+    public static final String TRANSFORM = "transform";
+
+    /** color and contrast operations */
+    public static final String COLOR = "color";
+
+    /** encoding the image (including sending if not buffered) */
+    public static final String ENCODE = "encode";
+
+    /** sending the encoded image */
+    public static final String SEND = "send";
+
+    /** the histograms by stage|mime|backend */
+    protected static ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * Records the time since startNanos (from System.nanoTime()) for stage.
+     *
+     * @param stage
+     * @param mime
+     *            source mime type (may be null)
+     * @param backend
+     *            DocuImage implementation (may be null)
+     * @param startNanos
+     */
+    public static void record(String stage, String mime, Class<?> backend, long startNanos) {
+        getHistogram(stage, mime, (backend != null) ? backend.getSimpleName() : null).recordSince(startNanos);
+    }
+
+    /**
+     * Records the time since startNanos (from System.nanoTime()) for stage of
+     * the job.
+     *
+     * @param stage
+     * @param jobinfo
+     * @param img
+     *            the DocuImage of the job (may be null)
+     * @param startNanos
+     */
+    public static void record(String stage, ImageJobDescription jobinfo, DocuImage img, long startNanos) {
+        String mime = null;
+        try {
+            mime = jobinfo.getInput().getMimetype();
+        } catch (Exception e) {
+            // no input
+        }
+        record(stage, mime, (img != null) ? img.getClass() : null, startNanos);
+    }
+
+    /**
+     * Returns the histogram for stage, mime and backend (creates it if
+     * necessary).
+     *
+     * @param stage
+     * @param mime
+     * @param backend
+     * @return
+     */
+    public static LatencyHistogram getHistogram(String stage, String mime, String backend) {
+        if (mime == null) {
+            mime = "unknown";
+        }
+        if (backend == null) {
+            backend = "unknown";
+        }
+        String key = stage + "|" + mime + "|" + backend;
+        LatencyHistogram hist = histograms.get(key);
+        if (hist == null) {
+            LatencyHistogram newHist = new LatencyHistogram();
+            hist = histograms.putIfAbsent(key, newHist);
+            if (hist == null) {
+                hist = newHist;
+                DigilibMBeans.register((LatencyHistogramMBean) hist, LatencyHistogramMBean.class, "ImageStage",
+                        "stage=" + stage + ",mime=" + mime + ",backend=" + backend);
+            }
+        }
+        return hist;
+    }
+
+    /**
+     * Returns all histograms by "stage|mime|backend".
+     *
+     * @return
+     */
+    public static Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+}
@@ -31,6 +31,10 @@ import org.apache.log4j.Logger;
 
 import digilib.conf.DigilibConfiguration;
 import digilib.io.FileOpException;
+import digilib.io.ImageInput;
+import digilib.util.DigilibJobCenter;
+import digilib.util.TraceSpan;
+import digilib.util.Tracing;
 
 /**
  * Worker that renders an image.
@@ -41,17 +45,25 @@ import digilib.io.FileOpException;
 public class ImageWorker implements Callable<DocuImage> {
 
     protected static Logger logger = Logger.getLogger(ImageWorker.class);
-    private DigilibConfiguration dlConfig;
     private ImageJobDescription jobinfo;
 
     /** flag for stopping the thread */
     private boolean stopNow = false;
 
+    /** time the worker was created (ns) */
+    private long createTime;
+
+    /** job center that limits the CPU-bound part of the job (or null) */
+    private DigilibJobCenter<?> cpuLimiter = null;
+
+    /** the worker holds a CPU permit of cpuLimiter */
+    private boolean cpuAcquired = false;
+
     public ImageWorker(DigilibConfiguration dlConfig,
             ImageJobDescription jobinfo) {
         super();
-        this.dlConfig = dlConfig;
         this.jobinfo = jobinfo;
+        this.createTime = System.nanoTime();
     }
 
     /**
@@ -61,6 +73,20 @@ public class ImageWorker implements Callable<DocuImage> {
             ImageOpException {
 
         logger.debug("ImageWorker starting");
+        TraceSpan span = Tracing.begin(Tracing.RENDER);
+        try {
+            return render(span);
+        } finally {
+            releaseCpu();
+            span.end();
+        }
+    }
+
+    /**
+     * render and return the image (with attributes for span)
+     */
+    protected DocuImage render(TraceSpan span) throws FileOpException, IOException,
+            ImageOpException {
         long startTime = System.currentTimeMillis();
         if (stopNow) {
             logger.debug("ImageWorker stopping (at the beginning)");
@@ -74,45 +100,58 @@ public class ImageWorker implements Callable<DocuImage> {
                 throw new ImageOpException("Unable to get DocuImage instance!");
             }
         }
+        ImageStageStats.record(ImageStageStats.QUEUE, jobinfo, docuImage, createTime);
 
         // set interpolation quality
+        docuImage.setFastInterpolation(jobinfo.isFastInterpolation());
         docuImage.setQuality(jobinfo.getScaleQual());
 
         Rectangle loadRect = jobinfo.getOuterUserImgArea().getBounds();
+        long stageTime;
         double scaleXY = jobinfo.getScaleXY();
+        ImageInput input = jobinfo.getInput();
+        if (input.hasFile()) {
+            span.setPath(input.getFile().getPath());
+        }
+        span.setRegion(loadRect.x, loadRect.y, loadRect.width, loadRect.height);
+        span.setScale(scaleXY);
 
         if (stopNow) {
             logger.debug("ImageWorker stopping (after setup)");
             return null;
         }
+        /*
+         * the CPU-bound part starts here, after the lookup and identification
+         * of the input. it includes loading because the image readers read
+         * and decode the file in one pass.
+         */
+        acquireCpu(docuImage);
         // use subimage loading if possible
         if (docuImage.isSubimageSupported()) {
             logger.debug("Subimage: scale " + scaleXY + " = " + (1 / scaleXY));
-            double subf = 1d;
-            double subsamp = 1d;
-            if (scaleXY < 1) {
-                subf = 1 / scaleXY;
-                // for higher quality reduce subsample factor by minSubsample
-                if (jobinfo.getScaleQual() > 0) {
-                    subsamp = Math.max(Math.floor(subf / dlConfig.getAsFloat("subsample-minimum")), 1d);
-                } else {
-                    subsamp = Math.floor(subf);
-                }
+            double subsamp = jobinfo.getSubsample();
+            if (subsamp > 1) {
                 // correct scaling factor by subsampling factor
                 scaleXY *= subsamp;
+                span.setSubsample((int) subsamp);
                 logger.debug("Using subsampling: " + subsamp + " rest " + scaleXY);
             }
             // load region with subsampling
+            stageTime = System.nanoTime();
             docuImage.loadSubimage(jobinfo.getInput(), loadRect, (int) subsamp);
+            ImageStageStats.record(ImageStageStats.LOAD, jobinfo, docuImage, stageTime);
             logger.debug("SUBSAMP: " + subsamp + ": " + jobinfo.getInput().getSize() + " -> " + docuImage.getSize());
             if (stopNow) {
                 logger.debug("ImageWorker stopping (after loading and cropping)");
                 return null;
             }
-            // and scale
-            docuImage.scale(scaleXY, scaleXY);
+            // and scale, mirror and rotate
+            stageTime = System.nanoTime();
+            transform(docuImage, scaleXY);
+            ImageStageStats.record(ImageStageStats.TRANSFORM, jobinfo, docuImage, stageTime);
         } else {
             // else load and crop the whole file
+            stageTime = System.nanoTime();
             docuImage.loadImage(jobinfo.getInput());
             if (stopNow) {
                 logger.debug("ImageWorker stopping (after loading)");
@@ -120,54 +159,36 @@ public class ImageWorker implements Callable<DocuImage> {
             }
             docuImage.crop((int) loadRect.getX(), (int) loadRect.getY(),
                     (int) loadRect.getWidth(), (int) loadRect.getHeight());
+            ImageStageStats.record(ImageStageStats.LOAD, jobinfo, docuImage, stageTime);
             if (stopNow) {
                 logger.debug("ImageWorker stopping (after cropping)");
                 return null;
             }
-            docuImage.scale(scaleXY, scaleXY);
+            stageTime = System.nanoTime();
+            transform(docuImage, scaleXY);
+            ImageStageStats.record(ImageStageStats.TRANSFORM, jobinfo, docuImage, stageTime);
         }
 
         if (stopNow) {
-            logger.debug("ImageWorker stopping (after scaling)");
+            logger.debug("ImageWorker stopping (after scaling and rotating)");
             return null;
         }
-        // mirror image
-        // operation mode: "hmir": mirror horizontally, "vmir": mirror
-        // vertically
-        if (jobinfo.hasOption("hmir")) {
-            docuImage.mirror(0);
-        }
-        if (jobinfo.hasOption("vmir")) {
-            docuImage.mirror(90);
-        }
-
-        if (stopNow) {
-            logger.debug("ImageWorker stopping (after mirroring)");
-            return null;
-        }
-        // rotate image
-        if (jobinfo.getAsFloat("rot") != 0d) {
-            docuImage.rotate(jobinfo.getAsFloat("rot"));
-            /*
-             * if (jobinfo.get_wholeRotArea()) { // crop to the inner bounding
-             * box float xcrop = (float) (docuImage.getWidth() -
-             * jobinfo.get_innerUserImgArea().getWidth() scaleXY); float ycrop =
-             * (float) (docuImage.getHeight() -
-             * jobinfo.get_innerUserImgArea().getHeight() scaleXY); if ((xcrop >
-             * 0) || (ycrop > 0)) { // only crop smaller xcrop = (xcrop > 0) ?
-             * xcrop : 0; ycrop = (ycrop > 0) ? ycrop : 0; // crop image
-             * docuImage.crop((int) (xcrop / 2), (int) (ycrop / 2), (int)
-             * (docuImage.getWidth() - xcrop), (int) (docuImage.getHeight() -
-             * ycrop)); } }
-             */
+        /*
+         * rotated image: if (jobinfo.get_wholeRotArea()) { // crop to the inner bounding
+         * box float xcrop = (float) (docuImage.getWidth() -
+         * jobinfo.get_innerUserImgArea().getWidth() scaleXY); float ycrop =
+         * (float) (docuImage.getHeight() -
+         * jobinfo.get_innerUserImgArea().getHeight() scaleXY); if ((xcrop >
+         * 0) || (ycrop > 0)) { // only crop smaller xcrop = (xcrop > 0) ?
+         * xcrop : 0; ycrop = (ycrop > 0) ? ycrop : 0; // crop image
+         * docuImage.crop((int) (xcrop / 2), (int) (ycrop / 2), (int)
+         * (docuImage.getWidth() - xcrop), (int) (docuImage.getHeight() -
+         * ycrop)); } }
+         */
 
-        }
-
-        if (stopNow) {
-            logger.debug("ImageWorker stopping (after rotating)");
-            return null;
-        }
         // color modification
+        stageTime = System.nanoTime();
+        boolean colorOps = false;
         float[] paramRGBM = jobinfo.getRGBM();
         float[] paramRGBA = jobinfo.getRGBA();
         if ((paramRGBM != null) || (paramRGBA != null)) {
@@ -184,6 +205,7 @@ public class ImageWorker implements Callable<DocuImage> {
                 mult[i] = (float) Math.pow(2, (float) paramRGBM[i]);
             }
             docuImage.enhanceRGB(mult, paramRGBA);
+            colorOps = true;
         }
 
         if (stopNow) {
@@ -196,6 +218,7 @@ public class ImageWorker implements Callable<DocuImage> {
         if ((paramCONT != 0f) || (paramBRGT != 0f)) {
             float mult = (float) Math.pow(2, paramCONT);
             docuImage.enhance(mult, paramBRGT);
+            colorOps = true;
         }
 
         if (stopNow) {
@@ -206,6 +229,10 @@ public class ImageWorker implements Callable<DocuImage> {
         DocuImage.ColorOp colop = jobinfo.getColOp();
         if (colop != null) {
             docuImage.colorOp(colop);
+            colorOps = true;
+        }
+        if (colorOps) {
+            ImageStageStats.record(ImageStageStats.COLOR, jobinfo, docuImage, stageTime);
         }
 
         logger.debug("rendered in " + (System.currentTimeMillis() - startTime)
@@ -214,6 +241,62 @@ public class ImageWorker implements Callable<DocuImage> {
         return docuImage;
     }
 
+    /**
+     * Scale, mirror and rotate the image in one operation.
+     * 
+     * @param docuImage
+     * @param scaleXY
+     * @throws ImageOpException
+     */
+    protected void transform(DocuImage docuImage, double scaleXY) throws ImageOpException {
+        // operation mode: "hmir": mirror horizontally, "vmir": mirror
+        // vertically
+        docuImage.transform(scaleXY, scaleXY, jobinfo.hasOption("hmir"),
+                jobinfo.hasOption("vmir"), jobinfo.getAsFloat("rot"));
+    }
+
+    /**
+     * Sets the job center that limits the CPU-bound part of the job (see
+     * DigilibJobCenter.acquireCpu()).
+     * 
+     * @param jobCenter
+     */
+    public void setCpuLimiter(DigilibJobCenter<?> jobCenter) {
+        this.cpuLimiter = jobCenter;
+    }
+
+    /**
+     * Waits for a CPU permit of the cpuLimiter.
+     * 
+     * @param docuImage
+     * @throws ImageOpException
+     */
+    protected void acquireCpu(DocuImage docuImage) throws ImageOpException {
+        if (cpuLimiter != null && !cpuAcquired) {
+            long waitTime = System.nanoTime();
+            try {
+                cpuLimiter.acquireCpu();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ImageOpException("Interrupted waiting for CPU.");
+            }
+            cpuAcquired = true;
+            if (cpuLimiter.isIoMode()) {
+                ImageStageStats.record(ImageStageStats.CPU, jobinfo, docuImage, waitTime);
+            }
+        }
+    }
+
+    /**
+     * Returns the CPU permit of the cpuLimiter.
+     */
+    protected void releaseCpu() {
+        if (cpuAcquired) {
+            cpuAcquired = false;
+            cpuLimiter.releaseCpu();
+        }
+    }
+
     /**
      * Set the stopNow flag. Thread stops at the next occasion.
      */
@@ -0,0 +1,224 @@
+package digilib.image;
+
+/*
+ * #%L
+ * Raster level image operations.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import digilib.util.RowBandExecutor;
+import digilib.util.RowBandExecutor.RowBandTask;
+
+/**
+ * Lossless operations on the pixel data of BufferedImages.
+ *
+ * Supports images with one int per pixel (TYPE_INT_RGB etc.) and with
+ * interleaved bytes (TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY etc.).
+ *
+ * @author agent
+ *
+ */
+public class RasterOps {
+
+    /**
+     * Returns the number of clockwise quarter turns for angle if angle is a
+     * multiple of 90 degrees, otherwise -1.
+     *
+     * @param angle
+     * @return
+     */
+    public static int quarterTurns(double angle) {
+        double q = angle / 90d;
+        long rq = Math.round(q);
+        if (Math.abs(q - rq) * 90d > DocuImageImpl.epsilon) {
+            return -1;
+        }
+        return (int) (((rq % 4) + 4) % 4);
+    }
+
+    /**
+     * Returns if the pixel data of img can be used by transpose.
+     *
+     * @param img
+     * @return
+     */
+    public static boolean isSupported(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        if (db.getNumBanks() != 1) {
+            return false;
+        }
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+            return true;
+        }
+        if (db instanceof DataBufferByte && sm instanceof PixelInterleavedSampleModel) {
+            // all bands of a pixel must be adjacent
+            PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+            int ps = pism.getPixelStride();
+            if (ps != pism.getNumBands()) {
+                return false;
+            }
+            for (int bo : pism.getBandOffsets()) {
+                if (bo >= ps) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Mirrors and rotates the image by multiples of 90 degrees.
+     *
+     * The result is the same as mirroring horizontally (if hmir), then
+     * vertically (if vmir) and then rotating by quarterTurns times 90 degrees
+     * clockwise. Returns null if the pixel data of the image is not supported.
+     *
+     * @param src
+     * @param hmir
+     * @param vmir
+     * @param quarterTurns
+     * @return
+     */
+    public static BufferedImage transpose(BufferedImage src, boolean hmir, boolean vmir, int quarterTurns) {
+        if (!isSupported(src)) {
+            return null;
+        }
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        final boolean swap = (quarterTurns % 2 == 1);
+        final int dw = swap ? h : w;
+        final int dh = swap ? w : h;
+        /*
+         * source coordinates as linear functions of the destination
+         * coordinates: sx = ax[0]*dx + ax[1]*dy + ax[2] (same for sy)
+         */
+        int[] ax;
+        int[] ay;
+        switch (quarterTurns) {
+        case 1:
+            ax = new int[] { 0, 1, 0 };
+            ay = new int[] { -1, 0, h - 1 };
+            break;
+        case 2:
+            ax = new int[] { -1, 0, w - 1 };
+            ay = new int[] { 0, -1, h - 1 };
+            break;
+        case 3:
+            ax = new int[] { 0, -1, w - 1 };
+            ay = new int[] { 1, 0, 0 };
+            break;
+        default:
+            ax = new int[] { 1, 0, 0 };
+            ay = new int[] { 0, 1, 0 };
+        }
+        if (hmir) {
+            ax = new int[] { -ax[0], -ax[1], w - 1 - ax[2] };
+        }
+        if (vmir) {
+            ay = new int[] { -ay[0], -ay[1], h - 1 - ay[2] };
+        }
+        // create destination with the same layout
+        WritableRaster srcRaster = src.getRaster();
+        WritableRaster dstRaster = srcRaster.createCompatibleWritableRaster(dw, dh);
+        BufferedImage dst = new BufferedImage(src.getColorModel(), dstRaster, src.isAlphaPremultiplied(), null);
+        // raster may be a child raster with a translated origin
+        int tx = -srcRaster.getSampleModelTranslateX();
+        int ty = -srcRaster.getSampleModelTranslateY();
+        SampleModel sm = srcRaster.getSampleModel();
+        if (sm instanceof SinglePixelPackedSampleModel) {
+            final int stride = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+            final int[] srcData = ((DataBufferInt) srcRaster.getDataBuffer()).getData();
+            final int base = srcRaster.getDataBuffer().getOffset() + ty * stride + tx;
+            final int dstStride = ((SinglePixelPackedSampleModel) dstRaster.getSampleModel()).getScanlineStride();
+            final int[] dstData = ((DataBufferInt) dstRaster.getDataBuffer()).getData();
+            final int start = base + ax[2] + ay[2] * stride;
+            final int incX = ax[0] + ay[0] * stride;
+            final int incY = ax[1] + ay[1] * stride;
+            RowBandExecutor.execute(dh, dw, new RowBandTask() {
+                @Override
+                public void run(int startRow, int endRow) {
+                    for (int y = startRow; y < endRow; ++y) {
+                        int si = start + y * incY;
+                        int di = y * dstStride;
+                        int de = di + dw;
+                        while (di < de) {
+                            dstData[di++] = srcData[si];
+                            si += incX;
+                        }
+                    }
+                }
+            });
+        } else {
+            PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+            final int ps = pism.getPixelStride();
+            final int stride = pism.getScanlineStride();
+            final byte[] srcData = ((DataBufferByte) srcRaster.getDataBuffer()).getData();
+            final int base = srcRaster.getDataBuffer().getOffset() + ty * stride + tx * ps;
+            final int dstStride = ((PixelInterleavedSampleModel) dstRaster.getSampleModel()).getScanlineStride();
+            final byte[] dstData = ((DataBufferByte) dstRaster.getDataBuffer()).getData();
+            final int start = base + ax[2] * ps + ay[2] * stride;
+            final int incX = ax[0] * ps + ay[0] * stride;
+            final int incY = ax[1] * ps + ay[1] * stride;
+            RowBandExecutor.execute(dh, dw, new RowBandTask() {
+                @Override
+                public void run(int startRow, int endRow) {
+                    for (int y = startRow; y < endRow; ++y) {
+                        int si = start + y * incY;
+                        int di = y * dstStride;
+                        int de = di + dw * ps;
+                        if (ps == 1) {
+                            while (di < de) {
+                                dstData[di++] = srcData[si];
+                                si += incX;
+                            }
+                        } else if (ps == 3) {
+                            while (di < de) {
+                                dstData[di++] = srcData[si];
+                                dstData[di++] = srcData[si + 1];
+                                dstData[di++] = srcData[si + 2];
+                                si += incX;
+                            }
+                        } else {
+                            while (di < de) {
+                                for (int b = 0; b < ps; ++b) {
+                                    dstData[di++] = srcData[si + b];
+                                }
+                                si += incX;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        return dst;
+    }
+
+}
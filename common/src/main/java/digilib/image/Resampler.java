@@ -0,0 +1,455 @@
+package digilib.image;
+
+/*
+ * #%L
+ * Separable image resampling.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import digilib.util.RowBandExecutor;
+import digilib.util.RowBandExecutor.RowBandTask;
+
+/**
+ * Resamples images with separable filters.
+ *
+ * The image is filtered horizontally and then vertically using precomputed
+ * weights for every destination row and column. The destination rows are
+ * processed in parallel bands. Works on images with 8 bits per sample that are
+ * stored as one int per pixel or as interleaved bytes.
+ *
+ * @author agent
+ *
+ */
+public class Resampler {
+
+    /** available filters */
+    public static enum Filter {
+        /** average of the covered source area (box filter) */
+        AREA(0.5),
+        /** bicubic filter (a=-0.5) */
+        BICUBIC(2),
+        /** Lanczos filter with three lobes */
+        LANCZOS(3);
+
+        /** radius of the filter in source pixels (at scale 1) */
+        public final double radius;
+
+        Filter(double radius) {
+            this.radius = radius;
+        }
+    }
+
+    /**
+     * Precomputed filter weights for all destination pixels in one direction.
+     */
+    protected static class Weights {
+        /** first source pixel for each destination pixel */
+        int[] start;
+        /** number of source pixels for each destination pixel */
+        int[] num;
+        /** weights (stride for each destination pixel) */
+        float[] weights;
+        /** max number of source pixels per destination pixel */
+        int stride;
+    }
+
+    /**
+     * Returns the value of the filter kernel at x.
+     *
+     * @param filter
+     * @param x
+     * @return
+     */
+    protected static double kernel(Filter filter, double x) {
+        x = Math.abs(x);
+        switch (filter) {
+        case BICUBIC:
+            if (x < 1) {
+                return (1.5 * x - 2.5) * x * x + 1;
+            } else if (x < 2) {
+                return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+            }
+            return 0;
+        case LANCZOS:
+            if (x < 1e-8) {
+                return 1;
+            } else if (x < 3) {
+                double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+            return 0;
+        default:
+            return (x <= 0.5) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Computes the weights for scaling srcSize pixels to dstSize pixels.
+     *
+     * @param filter
+     * @param srcSize
+     * @param dstSize
+     * @return
+     */
+    protected static Weights computeWeights(Filter filter, int srcSize, int dstSize) {
+        double scale = (double) dstSize / (double) srcSize;
+        // widen the filter for downscaling
+        double fscale = Math.max(1d / scale, 1d);
+        double support = filter.radius * fscale;
+        Weights wts = new Weights();
+        wts.stride = (int) Math.ceil(support * 2) + 2;
+        wts.start = new int[dstSize];
+        wts.num = new int[dstSize];
+        wts.weights = new float[dstSize * wts.stride];
+        double[] tmp = new double[wts.stride];
+        for (int i = 0; i < dstSize; ++i) {
+            int n = 0;
+            double sum = 0;
+            int start;
+            if (filter == Filter.AREA) {
+                // overlap of the destination pixel with the source pixels
+                double left = i / scale;
+                double right = Math.min((i + 1) / scale, srcSize);
+                start = (int) Math.floor(left);
+                int end = Math.min((int) Math.ceil(right), srcSize);
+                for (int j = start; j < end && n < wts.stride; ++j) {
+                    double w = Math.min(j + 1, right) - Math.max(j, left);
+                    tmp[n++] = w;
+                    sum += w;
+                }
+            } else {
+                // source position of the center of the destination pixel
+                double center = (i + 0.5) / scale - 0.5;
+                start = (int) Math.floor(center - support) + 1;
+                int end = (int) Math.floor(center + support);
+                start = Math.max(start, 0);
+                end = Math.min(end, srcSize - 1);
+                for (int j = start; j <= end && n < wts.stride; ++j) {
+                    double w = kernel(filter, (j - center) / fscale);
+                    tmp[n++] = w;
+                    sum += w;
+                }
+            }
+            if (n == 0 || sum == 0) {
+                // use the nearest pixel
+                start = Math.min((int) Math.floor((i + 0.5) / scale), srcSize - 1);
+                n = 1;
+                tmp[0] = 1;
+                sum = 1;
+            }
+            wts.start[i] = start;
+            wts.num[i] = n;
+            // normalize weights
+            for (int k = 0; k < n; ++k) {
+                wts.weights[i * wts.stride + k] = (float) (tmp[k] / sum);
+            }
+        }
+        return wts;
+    }
+
+    /**
+     * Returns if the pixel data of img can be resampled.
+     *
+     * @param img
+     * @return
+     */
+    public static boolean isSupported(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        if (db.getNumBanks() != 1 || img.getColorModel() instanceof IndexColorModel) {
+            return false;
+        }
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+            // only 8 bit per sample
+            SinglePixelPackedSampleModel spsm = (SinglePixelPackedSampleModel) sm;
+            int[] masks = spsm.getBitMasks();
+            int[] offsets = spsm.getBitOffsets();
+            for (int i = 0; i < masks.length; ++i) {
+                if ((masks[i] >>> offsets[i]) != 0xff) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (db instanceof DataBufferByte && sm instanceof PixelInterleavedSampleModel) {
+            PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+            int ps = pism.getPixelStride();
+            if (ps != pism.getNumBands()) {
+                return false;
+            }
+            for (int bo : pism.getBandOffsets()) {
+                if (bo >= ps) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resamples the image src to the size dstWidth x dstHeight using filter.
+     *
+     * Returns null if the pixel data of the image is not supported.
+     *
+     * @param src
+     * @param dstWidth
+     * @param dstHeight
+     * @param filter
+     * @return
+     */
+    public static BufferedImage resample(BufferedImage src, final int dstWidth, final int dstHeight, Filter filter) {
+        if (!isSupported(src) || dstWidth < 1 || dstHeight < 1) {
+            return null;
+        }
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final Weights xw = computeWeights(filter, srcWidth, dstWidth);
+        final Weights yw = computeWeights(filter, srcHeight, dstHeight);
+        // create destination with the same layout
+        WritableRaster srcRaster = src.getRaster();
+        final WritableRaster dstRaster = srcRaster.createCompatibleWritableRaster(dstWidth, dstHeight);
+        BufferedImage dst = new BufferedImage(src.getColorModel(), dstRaster, src.isAlphaPremultiplied(), null);
+        // filter non-premultiplied colors premultiplied to avoid fringes at transparent edges
+        int alpha = getAlphaChannel(src);
+        final PixelAccess srcPx = new PixelAccess(srcRaster, alpha);
+        final PixelAccess dstPx = new PixelAccess(dstRaster, alpha);
+        final int nc = srcPx.numChannels;
+        RowBandExecutor.execute(dstHeight, dstWidth, new RowBandTask() {
+            @Override
+            public void run(int startRow, int endRow) {
+                // source rows needed for this band
+                int sy0 = srcHeight;
+                int sy1 = 0;
+                for (int y = startRow; y < endRow; ++y) {
+                    sy0 = Math.min(sy0, yw.start[y]);
+                    sy1 = Math.max(sy1, yw.start[y] + yw.num[y]);
+                }
+                int rowLen = dstWidth * nc;
+                float[] line = new float[srcWidth * nc];
+                float[] tmp = new float[(sy1 - sy0) * rowLen];
+                // horizontal pass
+                for (int sy = sy0; sy < sy1; ++sy) {
+                    srcPx.readRow(sy, line);
+                    int ti = (sy - sy0) * rowLen;
+                    for (int dx = 0; dx < dstWidth; ++dx) {
+                        int wi = dx * xw.stride;
+                        int si = xw.start[dx] * nc;
+                        int n = xw.num[dx];
+                        for (int c = 0; c < nc; ++c) {
+                            float acc = 0;
+                            for (int k = 0, s = si + c; k < n; ++k, s += nc) {
+                                acc += xw.weights[wi + k] * line[s];
+                            }
+                            tmp[ti++] = acc;
+                        }
+                    }
+                }
+                // vertical pass
+                float[] acc = new float[rowLen];
+                for (int dy = startRow; dy < endRow; ++dy) {
+                    Arrays.fill(acc, 0f);
+                    int wi = dy * yw.stride;
+                    int n = yw.num[dy];
+                    for (int k = 0; k < n; ++k) {
+                        float w = yw.weights[wi + k];
+                        int ti = (yw.start[dy] + k - sy0) * rowLen;
+                        for (int i = 0; i < rowLen; ++i) {
+                            acc[i] += w * tmp[ti + i];
+                        }
+                    }
+                    dstPx.writeRow(dy, acc);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Returns the estimated size of the temporary buffers of resample() in
+     * bytes.
+     *
+     * Every row band filters its source rows (plus the filter support at its
+     * edges) horizontally into a float buffer and uses one source and one
+     * destination row of floats.
+     *
+     * @param srcWidth
+     * @param srcHeight
+     * @param dstWidth
+     * @param dstHeight
+     * @param numChannels
+     * @param filter
+     * @return
+     */
+    public static long getBufferMemory(int srcWidth, int srcHeight, int dstWidth, int dstHeight,
+            int numChannels, Filter filter) {
+        int numBands = RowBandExecutor.getNumBands(dstHeight, dstWidth);
+        double support = filter.radius * Math.max((double) srcHeight / (double) dstHeight, 1d);
+        double srcRows = Math.min(srcHeight + numBands * 2 * Math.ceil(support + 1), (double) numBands * srcHeight);
+        double floats = srcRows * dstWidth * numChannels + (double) numBands * (srcWidth + dstWidth) * numChannels;
+        return (long) (floats * 4);
+    }
+
+    /**
+     * Returns the position of the alpha sample in a pixel (as read by
+     * PixelAccess) if the image has non-premultiplied alpha or -1.
+     *
+     * @param img
+     * @return
+     */
+    protected static int getAlphaChannel(BufferedImage img) {
+        ColorModel cm = img.getColorModel();
+        if (!cm.hasAlpha() || cm.isAlphaPremultiplied()) {
+            return -1;
+        }
+        // alpha is the last band
+        int ab = img.getRaster().getNumBands() - 1;
+        SampleModel sm = img.getRaster().getSampleModel();
+        if (sm instanceof PixelInterleavedSampleModel) {
+            // bytes are read in memory order
+            return ((PixelInterleavedSampleModel) sm).getBandOffsets()[ab];
+        }
+        return ab;
+    }
+
+    /**
+     * Reads and writes rows of 8 bit samples as floats.
+     * 
+     * If alpha is set the colors are premultiplied with alpha when read and
+     * divided by alpha when written.
+     */
+    protected static class PixelAccess {
+        int numChannels;
+        int alpha;
+        int width;
+        int stride;
+        int base;
+        int[] intData;
+        int[] shifts;
+        byte[] byteData;
+
+        PixelAccess(WritableRaster raster, int alpha) {
+            this.alpha = alpha;
+            SampleModel sm = raster.getSampleModel();
+            width = raster.getWidth();
+            // raster may be a child raster with a translated origin
+            int tx = -raster.getSampleModelTranslateX();
+            int ty = -raster.getSampleModelTranslateY();
+            if (sm instanceof SinglePixelPackedSampleModel) {
+                SinglePixelPackedSampleModel spsm = (SinglePixelPackedSampleModel) sm;
+                intData = ((DataBufferInt) raster.getDataBuffer()).getData();
+                shifts = spsm.getBitOffsets();
+                numChannels = shifts.length;
+                stride = spsm.getScanlineStride();
+                base = raster.getDataBuffer().getOffset() + ty * stride + tx;
+            } else {
+                PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+                byteData = ((DataBufferByte) raster.getDataBuffer()).getData();
+                numChannels = pism.getPixelStride();
+                stride = pism.getScanlineStride();
+                base = raster.getDataBuffer().getOffset() + ty * stride + tx * numChannels;
+            }
+        }
+
+        /**
+         * Reads row y into line (numChannels floats per pixel).
+         */
+        void readRow(int y, float[] line) {
+            int si = base + y * stride;
+            int li = 0;
+            if (intData != null) {
+                for (int x = 0; x < width; ++x) {
+                    int p = intData[si++];
+                    for (int c = 0; c < numChannels; ++c) {
+                        line[li++] = (p >>> shifts[c]) & 0xff;
+                    }
+                }
+            } else {
+                int len = width * numChannels;
+                for (int i = 0; i < len; ++i) {
+                    line[li++] = byteData[si++] & 0xff;
+                }
+            }
+            if (alpha >= 0) {
+                int len = width * numChannels;
+                for (int p = 0; p < len; p += numChannels) {
+                    float a = line[p + alpha] / 255f;
+                    for (int c = 0; c < numChannels; ++c) {
+                        if (c != alpha) {
+                            line[p + c] *= a;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes line (numChannels floats per pixel) into row y.
+         */
+        void writeRow(int y, float[] line) {
+            if (alpha >= 0) {
+                int len = width * numChannels;
+                for (int p = 0; p < len; p += numChannels) {
+                    float a = line[p + alpha];
+                    float f = (a > 0.5f) ? 255f / a : 0f;
+                    for (int c = 0; c < numChannels; ++c) {
+                        if (c != alpha) {
+                            line[p + c] *= f;
+                        }
+                    }
+                }
+            }
+            int di = base + y * stride;
+            int li = 0;
+            if (intData != null) {
+                for (int x = 0; x < width; ++x) {
+                    int p = 0;
+                    for (int c = 0; c < numChannels; ++c) {
+                        p |= clamp(line[li++]) << shifts[c];
+                    }
+                    intData[di++] = p;
+                }
+            } else {
+                int len = width * numChannels;
+                for (int i = 0; i < len; ++i) {
+                    byteData[di++] = (byte) clamp(line[li++]);
+                }
+            }
+        }
+
+        static int clamp(float v) {
+            int i = (int) (v + 0.5f);
+            return (i < 0) ? 0 : ((i > 255) ? 255 : i);
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package digilib.image;
+
+/*
+ * #%L
+ * Detection of resolution levels in pyramidal TIFF files.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.log4j.Logger;
+
+import digilib.util.ImageSize;
+
+/**
+ * Reads the sizes of the resolution levels of pyramidal TIFF files.
+ *
+ * A TIFF file is considered a pyramid if its second and following images
+ * (IFDs) are successively smaller versions of the first image with the same
+ * aspect ratio. Other multi-page TIFFs are treated as single images.
+ *
+ * The levels are read with the ImageIO TIFF reader. They are only used if
+ * the image toolkit can read images by index.
+ *
+ * @author agent
+ *
+ */
+public class TiffPyramid {
+
+    protected static Logger logger = Logger.getLogger(TiffPyramid.class);
+
+    /** the mime type of pyramid files */
+    public static final String MIME_TYPE = "image/tiff";
+
+    /** max number of levels */
+    protected static final int MAX_LEVELS = 32;
+
+    /** use pyramid levels */
+    protected static boolean enabled = false;
+
+    /**
+     * Returns if pyramid levels are used.
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets if pyramid levels are used.
+     *
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        TiffPyramid.enabled = enabled;
+    }
+
+    /**
+     * Returns the sizes of the levels of the pyramidal TIFF file, starting with
+     * the full resolution. Returns null if the file is not a pyramid.
+     *
+     * @param file
+     * @return
+     */
+    public static ImageSize[] getLevels(File file) {
+        ImageReader reader = ImageCodecPool.getReader(MIME_TYPE);
+        if (reader == null) {
+            return null;
+        }
+        ImageInputStream istream = null;
+        try {
+            istream = new FileImageInputStream(new RandomAccessFile(file, "r"));
+            // we need to seek backwards to read all IFDs
+            reader.setInput(istream, false, true);
+            int n = Math.min(reader.getNumImages(true), MAX_LEVELS);
+            if (n < 2) {
+                return null;
+            }
+            int w0 = reader.getWidth(0);
+            int h0 = reader.getHeight(0);
+            ImageSize[] levels = new ImageSize[n];
+            levels[0] = new ImageSize(w0, h0);
+            int nl = 1;
+            for (int i = 1; i < n; ++i) {
+                int w = reader.getWidth(i);
+                int h = reader.getHeight(i);
+                ImageSize prev = levels[nl - 1];
+                if (w >= prev.getWidth() || h >= prev.getHeight() || !isSameAspect(w0, h0, w, h)) {
+                    // not a level of the pyramid
+                    break;
+                }
+                levels[nl++] = new ImageSize(w, h);
+            }
+            if (nl < 2) {
+                return null;
+            }
+            ImageSize[] result = new ImageSize[nl];
+            System.arraycopy(levels, 0, result, 0, nl);
+            logger.debug("TIFF pyramid with " + nl + " levels: " + file);
+            return result;
+        } catch (IOException e) {
+            logger.debug("Unable to read TIFF levels of " + file + ": " + e);
+        } catch (RuntimeException e) {
+            logger.debug("Unable to read TIFF levels of " + file + ": " + e);
+        } finally {
+            ImageCodecPool.releaseReader(MIME_TYPE, reader);
+            if (istream != null) {
+                try {
+                    istream.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns if w x h is a scaled version of w0 x h0 (allowing for rounding).
+     *
+     * @param w0
+     * @param h0
+     * @param w
+     * @param h
+     * @return
+     */
+    protected static boolean isSameAspect(int w0, int h0, int w, int h) {
+        double eh = (double) h0 * w / w0;
+        return Math.abs(h - eh) <= 1 + 0.01 * eh;
+    }
+
+}
@@ -31,6 +31,7 @@ package digilib.io;
 import java.io.File;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import digilib.conf.DigilibConfiguration;
 import digilib.io.FileOps.FileClass;
@@ -42,6 +43,9 @@ import digilib.util.XMLListLoader;
  */
 public class AliasingDocuDirCache extends DocuDirCache {
 
+	/** names of the real directories by alias name */
+	protected Map<String, String> aliases = new ConcurrentHashMap<String, String>();
+
 	/**
 	 * @param fc
 	 * @param confFileName
@@ -89,15 +93,24 @@ public class AliasingDocuDirCache extends DocuDirCache {
 	/**
 	 * Adds a DocuDirectory under another name to the cache.
 	 * 
+	 * The alias only refers to the name of the directory so that the
+	 * directory can be evicted like any other.
+	 * 
 	 * @param name
 	 * @param newdir
 	 */
     public void putName(String name, DocuDirectory newdir) {
-        if (map.containsKey(name)) {
+        if (aliases.containsKey(name) || map.containsKey(name)) {
             logger.warn("Duplicate key in AliasingDocuDirCache.put -- ignored!");
         } else {
-            map.put(name, newdir);
+            aliases.put(name, newdir.getDirName());
         }
     }
 
+	@Override
+	protected String resolveName(String fn) {
+		String dn = aliases.get(fn);
+		return (dn != null) ? dn : fn;
+	}
+
 }
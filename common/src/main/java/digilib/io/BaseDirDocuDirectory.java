@@ -28,10 +28,21 @@ package digilib.io;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import digilib.conf.DigilibConfiguration;
 import digilib.io.FileOps.FileClass;
 import digilib.meta.MetaFactory;
+import digilib.util.TraceSpan;
+import digilib.util.Tracing;
 
 /**
  * DocuDirectory implementation that looks for scaled images in parallel paths
@@ -47,6 +58,11 @@ public class BaseDirDocuDirectory extends DocuDirectory {
     /** list of base directories */
     protected String[] baseDirNames = null;
 
+    /** number of threads for reading parallel directories */
+    protected static int numReaderThreads = 8;
+    /** shared thread pool for reading parallel directories */
+    private static ExecutorService dirReader = null;
+
     /**
      * Configure object with digilib directory path and a parent DocuDirCache.
      * 
@@ -69,6 +85,7 @@ public class BaseDirDocuDirectory extends DocuDirectory {
         String baseDirName = baseDirNames[0];
         // clear directory list
         files = new ArrayList<DocuDirent>();
+        fileIndex = null;
         dirMTime = 0;
         // the first directory has to exist
         dir = new File(baseDirName, path);
@@ -88,40 +105,30 @@ public class BaseDirDocuDirectory extends DocuDirectory {
     	}
     	// read all filenames
     	logger.debug("reading directory "+this+" = "+dir.getPath());
-    	File[] allFiles = null;
+    	TraceSpan span = Tracing.begin(Tracing.READ_DIR);
+    	span.setPath(dir.getPath());
+    	// read the scaled directories in the background
+    	List<Future<?>> scaledReads = readScaledDirs();
     	/*
-    	 * using ReadableFileFilter is safer (we won't get directories with file
-    	 * extensions) but slower.
+    	 * we only list the names and filter by extension because it is much
+    	 * faster than File objects for large directories on slow storage.
     	 */
-    	// allFiles = dir.listFiles(new FileOps.ReadableFileFilter());
-    	allFiles = dir.listFiles();
-    	if (allFiles == null) {
+    	String[] allNames = dir.list();
+    	// wait for the scaled directories
+    	waitForScaledDirs(scaledReads);
+    	if (allNames == null) {
     		// not a directory
+    		span.end();
     		return false;
     	}
-    	// init parallel directories
-    	if (dirs == null) {
-    		// number of base dirs
-    		int nb = baseDirNames.length;
-    		// array of parallel dirs
-    		dirs = new Directory[nb];
-    		// first entry is this directory
-    		dirs[0] = this;
-    		// fill array with the remaining directories
-    		for (int j = 1; j < nb; j++) {
-    			// add dirName to baseDirName
-    			File d = new File(baseDirNames[j], dirName);
-    			if (d.isDirectory()) {
-    				dirs[j] = new Directory(d);
-    				logger.debug("  reading scaled directory " + d.getPath());
-    				dirs[j].readDir();
-    			}
+    	ArrayList<File> fileList = new ArrayList<File>(allNames.length);
+    	for (String fn : allNames) {
+    		if (FileOps.classForFilename(fn) == fileClass) {
+    			fileList.add(new File(dir, fn));
     		}
     	}
-    
-    	File[] fileList = FileOps.listFiles(allFiles, FileOps.filterForClass(fileClass));
     	// number of files in the directory
-    	int numFiles = fileList.length;
+    	int numFiles = fileList.size();
     	if (numFiles > 0) {
     		// create new list
     		ArrayList<DocuDirent> dl = new ArrayList<DocuDirent>(numFiles);
@@ -137,17 +144,161 @@ public class BaseDirDocuDirectory extends DocuDirectory {
     		 * (DocuDirent's natural sort order is by filename)
     		 */
     		Collections.sort(dl);
+    		fileIndex = new FilenameIndex(dl);
     	}
-    	// clear the scaled directories
-    	for (Directory d: dirs) {
-    		if (d != null) {
-    			d.clearFilenames();
-    		}
-    	}
+    	/*
+    	 * we keep the filenames of the scaled directories because the
+    	 * ImageFileSets look up their scaled images on demand.
+    	 */
     	dirMTime = dir.lastModified();
     	// read metadata as well
     	readMeta();
+    	span.setCount(numFiles);
+    	span.end();
     	return isValid;
     }
 
+    /**
+     * Starts reading the parallel directories for scaled images in the
+     * background. Creates the array of parallel directories if necessary.
+     * 
+     * @return the running reads
+     */
+    protected List<Future<?>> readScaledDirs() {
+    	// number of base dirs
+    	int nb = baseDirNames.length;
+    	final boolean initDirs = (dirs == null);
+    	if (initDirs) {
+    		// array of parallel dirs
+    		dirs = new Directory[nb];
+    		// first entry is this directory
+    		dirs[0] = this;
+    	}
+    	List<Future<?>> reads = new ArrayList<Future<?>>(nb);
+    	ExecutorService exec = getDirReader();
+    	for (int j = 1; j < nb; j++) {
+    		final int sj = j;
+    		if (!initDirs && dirs[j] == null) {
+    			continue;
+    		}
+    		reads.add(exec.submit(new Runnable() {
+    			@Override
+    			public void run() {
+    				if (initDirs) {
+    					// add dirName to baseDirName
+    					File d = new File(baseDirNames[sj], dirName);
+    					if (d.isDirectory()) {
+    						logger.debug("  reading scaled directory " + d.getPath());
+    						Directory sd = new Directory(d);
+    						sd.readDir();
+    						dirs[sj] = sd;
+    					}
+    				} else {
+    					dirs[sj].readDir();
+    				}
+    			}
+    		}));
+    	}
+    	return reads;
+    }
+
+    /**
+     * Waits until the parallel directories have been read.
+     * 
+     * @param reads
+     */
+    protected void waitForScaledDirs(List<Future<?>> reads) {
+    	boolean interrupted = false;
+    	for (Future<?> f : reads) {
+    		while (true) {
+    			try {
+    				f.get();
+    				break;
+    			} catch (InterruptedException e) {
+    				// we need the directories -- try again
+    				interrupted = true;
+    			} catch (ExecutionException e) {
+    				logger.error("Error reading scaled directory: ", e.getCause());
+    				break;
+    			}
+    		}
+    	}
+    	if (interrupted) {
+    		Thread.currentThread().interrupt();
+    	}
+    }
+
+    /**
+     * Returns the shared thread pool for reading directories.
+     * 
+     * @return
+     */
+    protected static synchronized ExecutorService getDirReader() {
+    	if (dirReader == null) {
+    		ThreadPoolExecutor tpe = new ThreadPoolExecutor(numReaderThreads, numReaderThreads, 60L,
+    				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+    					private AtomicInteger num = new AtomicInteger(0);
+
+    					@Override
+    					public Thread newThread(Runnable r) {
+    						Thread t = new Thread(r, "digilib-dirreader-" + num.incrementAndGet());
+    						t.setDaemon(true);
+    						return t;
+    					}
+    				});
+    		tpe.allowCoreThreadTimeOut(true);
+    		dirReader = tpe;
+    	}
+    	return dirReader;
+    }
+
+    /**
+     * Shuts down the shared thread pool for reading directories.
+     */
+    public static synchronized void shutdownDirReader() {
+    	if (dirReader != null) {
+    		dirReader.shutdownNow();
+    		dirReader = null;
+    	}
+    }
+
+    /**
+     * Sets the contents of this directory from a snapshot instead of reading
+     * it.
+     * 
+     * @param scaledDirs
+     *            parallel dirs for scaled images
+     * @param fileList
+     *            sorted list of files
+     * @param mtime
+     *            modification time of the directory
+     */
+    public synchronized void restore(Directory[] scaledDirs, List<DocuDirent> fileList, long mtime) {
+        dirs = scaledDirs;
+        dirs[0] = this;
+        files = fileList;
+        fileIndex = new FilenameIndex(fileList);
+        dirMTime = mtime;
+        readMeta();
+    }
+
+    /**
+     * Returns the array of parallel dirs for scaled images (null if the
+     * directory has not been read).
+     * 
+     * @return
+     */
+    public Directory[] getScaledDirs() {
+        return dirs;
+    }
+
+    /**
+     * Returns the list of base directories.
+     * 
+     * @return
+     */
+    public String[] getBaseDirNames() {
+        return baseDirNames;
+    }
+
 }
@@ -0,0 +1,558 @@
+package digilib.io;
+
+/*
+ * #%L
+ * CompactDocuDirectory.java -- DocuDirectory with a compact file list.
+ *
+ * Digital Image Library servlet components
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import digilib.io.FileOps.FileClass;
+import digilib.util.ImageSize;
+import digilib.util.TraceSpan;
+import digilib.util.Tracing;
+
+/**
+ * BaseDirDocuDirectory that keeps the list of image files in primitive
+ * arrays instead of one ImageFileSet with ImageFiles per file.
+ *
+ * The file names are packed in a PackedNameList, the sizes and types of the
+ * images at all resolutions are kept in int and byte arrays. ImageFileSet
+ * objects are created on demand by get() and only softly referenced
+ * afterwards. Sizes and types that are identified through these objects are
+ * written back to the arrays.
+ *
+ * Directories of other file classes are read like in BaseDirDocuDirectory.
+ *
+ * @author agent
+ *
+ */
+public class CompactDocuDirectory extends BaseDirDocuDirectory {
+
+    /** no file in this resolution */
+    protected static final byte NO_MATCH = 0;
+    /** file with the same name in this resolution */
+    protected static final byte SAME_NAME = 1;
+    /** file with a different name (extension) in this resolution */
+    protected static final byte OTHER_NAME = 2;
+
+    /** table of mime types for the type arrays (index 0 is unknown) */
+    protected static List<String> mimeTypes = new ArrayList<String>();
+    static {
+        mimeTypes.add(null);
+    }
+
+    /** the current list of image files */
+    protected volatile Listing listing = null;
+
+    /**
+     * Compact list of image files with their sizes and types at all
+     * resolutions.
+     *
+     * The arrays of a Listing are indexed [resolution][file].
+     */
+    protected static class Listing {
+        /** sorted names of the files */
+        protected PackedNameList names;
+        /** parallel dirs for scaled images */
+        protected Directory[] dirs;
+        /** kind of match per resolution and file */
+        protected byte[][] matches;
+        /** index of the names */
+        protected FilenameIndex index;
+        /** names of the OTHER_NAME matches per resolution (or null) */
+        protected PackedNameList[] otherNames;
+        /** image widths per resolution and file (-1 is unknown) */
+        protected int[][] widths;
+        /** image heights per resolution and file (-1 is unknown) */
+        protected int[][] heights;
+        /** index of the mime type per resolution and file (0 is unknown) */
+        protected byte[][] types;
+        /** ImageFileSets created for the files (DocuDirent or SoftReference) */
+        protected Object[] views = null;
+        /** keep the ImageFileSets that get() returns while greater than 0 */
+        protected int pinDepth = 0;
+        /** number of ImageFileSets that have been kept */
+        protected int numPinned = 0;
+
+        /** names of the OTHER_NAME matches while the Listing is built */
+        private String[][] otherNameList;
+
+        /**
+         * Creates a Listing for the sorted filenames in the parallel dirs.
+         *
+         * @param fileNames
+         * @param dirs
+         */
+        protected Listing(String[] fileNames, Directory[] dirs) {
+            int n = fileNames.length;
+            int nb = dirs.length;
+            this.names = new PackedNameList(fileNames);
+            this.index = new FilenameIndex(names);
+            this.dirs = dirs;
+            matches = new byte[nb][];
+            otherNames = new PackedNameList[nb];
+            otherNameList = new String[nb][];
+            widths = new int[nb][];
+            heights = new int[nb][];
+            types = new byte[nb][];
+            for (int j = 0; j < nb; ++j) {
+                matches[j] = new byte[n];
+                widths[j] = new int[n];
+                Arrays.fill(widths[j], -1);
+                heights[j] = new int[n];
+                Arrays.fill(heights[j], -1);
+                types[j] = new byte[n];
+            }
+            // all files exist in the first resolution
+            Arrays.fill(matches[0], SAME_NAME);
+        }
+
+        /**
+         * Sets the file at index i in resolution j to the name fn.
+         *
+         * @param j
+         * @param i
+         * @param fn
+         */
+        protected void setMatch(int j, int i, String fn) {
+            if (fn.equals(names.get(i))) {
+                matches[j][i] = SAME_NAME;
+            } else {
+                matches[j][i] = OTHER_NAME;
+                if (otherNameList[j] == null) {
+                    otherNameList[j] = new String[names.size()];
+                }
+                otherNameList[j][i] = fn;
+            }
+        }
+
+        /**
+         * Sets the size and type of the file at index i in resolution j.
+         *
+         * @param j
+         * @param i
+         * @param size
+         * @param mimetype
+         */
+        protected void setInfo(int j, int i, ImageSize size, String mimetype) {
+            if (size != null) {
+                // height first: readers check width last
+                heights[j][i] = size.getHeight();
+                widths[j][i] = size.getWidth();
+            }
+            if (mimetype != null) {
+                types[j][i] = getTypeIndex(mimetype);
+            }
+        }
+
+        /**
+         * Packs the names of the OTHER_NAME matches. Has to be called after
+         * all matches are set.
+         */
+        protected void pack() {
+            for (int j = 0; j < otherNameList.length; ++j) {
+                if (otherNameList[j] != null) {
+                    otherNames[j] = new PackedNameList(otherNameList[j]);
+                }
+            }
+            otherNameList = null;
+        }
+
+        /**
+         * Returns the name of the file at index i in resolution j (or null).
+         *
+         * @param j
+         * @param i
+         * @return
+         */
+        protected String getName(int j, int i) {
+            switch (matches[j][i]) {
+            case SAME_NAME:
+                return names.get(i);
+            case OTHER_NAME:
+                return otherNames[j].get(i);
+            default:
+                return null;
+            }
+        }
+
+        /**
+         * Drops the references to ImageFileSets that have no file metadata.
+         */
+        protected void unpinViews() {
+            if (views == null || numPinned == 0) {
+                return;
+            }
+            numPinned = 0;
+            for (int i = 0; i < views.length; ++i) {
+                Object v = views[i];
+                if (v instanceof DocuDirent) {
+                    DocuDirent df = (DocuDirent) v;
+                    if (df.getMeta() == null || df.getMeta().getFileMeta() == null) {
+                        views[i] = new SoftReference<DocuDirent>(df);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * ImageFile that writes its size and type back to the Listing.
+     */
+    protected static class CompactImageFile extends ImageFile {
+
+        protected Listing listing;
+        protected int resIdx;
+        protected int fileIdx;
+
+        public CompactImageFile(String fn, ImageSet parent, Directory dir, Listing listing, int resIdx,
+                int fileIdx) {
+            super(fn, parent, dir);
+            int w = listing.widths[resIdx][fileIdx];
+            int h = listing.heights[resIdx][fileIdx];
+            if (w >= 0 && h >= 0) {
+                super.setSize(new ImageSize(w, h));
+            }
+            byte t = listing.types[resIdx][fileIdx];
+            if (t > 0) {
+                super.setMimetype(getMimeType(t));
+            }
+            // write back from now on
+            this.listing = listing;
+            this.resIdx = resIdx;
+            this.fileIdx = fileIdx;
+        }
+
+        @Override
+        public void setSize(ImageSize imageSize) {
+            super.setSize(imageSize);
+            if (listing != null) {
+                listing.setInfo(resIdx, fileIdx, imageSize, null);
+            }
+        }
+
+        @Override
+        public void setMimetype(String filetype) {
+            super.setMimetype(filetype);
+            if (listing != null) {
+                listing.setInfo(resIdx, fileIdx, null, filetype);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the mimetype in the table of mime types (0 if the
+     * table is full).
+     *
+     * @param mimetype
+     * @return
+     */
+    protected static byte getTypeIndex(String mimetype) {
+        synchronized (mimeTypes) {
+            int idx = mimeTypes.indexOf(mimetype);
+            if (idx < 0) {
+                if (mimeTypes.size() > Byte.MAX_VALUE) {
+                    return 0;
+                }
+                idx = mimeTypes.size();
+                mimeTypes.add(mimetype.intern());
+            }
+            return (byte) idx;
+        }
+    }
+
+    /**
+     * Returns the mimetype at index idx in the table of mime types.
+     *
+     * @param idx
+     * @return
+     */
+    protected static String getMimeType(byte idx) {
+        synchronized (mimeTypes) {
+            return mimeTypes.get(idx);
+        }
+    }
+
+    @Override
+    public synchronized boolean readDir() {
+        if (fileClass != FileClass.IMAGE) {
+            return super.readDir();
+        }
+        // check directory first
+        if (!isValid) {
+            return false;
+        }
+        // re-check modification time because the thread may have slept
+        if (dir.lastModified() <= dirMTime) {
+            return true;
+        }
+        // read all filenames
+        logger.debug("reading directory " + this + " = " + dir.getPath());
+        TraceSpan span = Tracing.begin(Tracing.READ_DIR);
+        span.setPath(dir.getPath());
+        // read the scaled directories in the background
+        List<Future<?>> scaledReads = readScaledDirs();
+        String[] allNames = dir.list();
+        // wait for the scaled directories
+        waitForScaledDirs(scaledReads);
+        if (allNames == null) {
+            // not a directory
+            span.end();
+            return false;
+        }
+        ArrayList<String> nameList = new ArrayList<String>(allNames.length);
+        for (String fn : allNames) {
+            if (FileOps.classForFilename(fn) == fileClass) {
+                nameList.add(fn);
+            }
+        }
+        String[] fileNames = nameList.toArray(new String[nameList.size()]);
+        // sorted for binarySearch
+        Arrays.sort(fileNames);
+        Listing l = new Listing(fileNames, dirs);
+        // match the files in the scaled directories
+        for (int j = 1; j < dirs.length; ++j) {
+            Directory d = dirs[j];
+            if (d == null) {
+                continue;
+            }
+            if (d.getFilenames() == null) {
+                d.readDir();
+            }
+            for (int i = 0; i < fileNames.length; ++i) {
+                String ifn = ImageFileSet.findFile(d, fileNames[i]);
+                if (ifn != null) {
+                    l.setMatch(j, i, ifn);
+                }
+            }
+            d.clearFilenames();
+        }
+        l.pack();
+        files = null;
+        listing = l;
+        dirMTime = dir.lastModified();
+        // read metadata as well
+        readMeta();
+        span.setCount(fileNames.length);
+        span.end();
+        return isValid;
+    }
+
+    @Override
+    public synchronized void restore(Directory[] scaledDirs, List<DocuDirent> fileList, long mtime) {
+        dirs = scaledDirs;
+        dirs[0] = this;
+        int n = fileList.size();
+        String[] fileNames = new String[n];
+        for (int i = 0; i < n; ++i) {
+            fileNames[i] = fileList.get(i).getName();
+        }
+        Listing l = new Listing(fileNames, dirs);
+        for (int i = 0; i < n; ++i) {
+            ImageFileSet fs = (ImageFileSet) fileList.get(i);
+            // don't use size() and get() because they check for pyramid levels
+            fs.fillScaled();
+            for (ImageInput ii : fs.list) {
+                ImageFile imf = (ImageFile) ii;
+                if (imf.getImageIndex() > 0) {
+                    // pyramid levels are checked again by the ImageFileSets
+                    continue;
+                }
+                for (int j = 0; j < dirs.length; ++j) {
+                    if (dirs[j] == imf.getDirectory()) {
+                        l.setMatch(j, i, imf.getName());
+                        // don't use getSize() because it identifies the image
+                        l.setInfo(j, i, imf.pixelSize, imf.mimetype);
+                        break;
+                    }
+                }
+            }
+        }
+        // the matches are in the listing now (like in readDir)
+        for (int j = 1; j < dirs.length; ++j) {
+            if (dirs[j] != null) {
+                dirs[j].clearFilenames();
+            }
+        }
+        l.pack();
+        files = null;
+        listing = l;
+        dirMTime = mtime;
+        readMeta();
+    }
+
+    @Override
+    public int size() {
+        Listing l = listing;
+        if (l == null) {
+            return super.size();
+        }
+        return l.names.size();
+    }
+
+    @Override
+    public DocuDirent get(int index) {
+        Listing l = listing;
+        if (l == null) {
+            return super.get(index);
+        }
+        if (index >= l.names.size()) {
+            return null;
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        synchronized (l) {
+            if (l.views == null) {
+                l.views = new Object[l.names.size()];
+            }
+            DocuDirent df = null;
+            Object v = l.views[index];
+            if (v instanceof DocuDirent) {
+                // pinned
+                return (DocuDirent) v;
+            } else if (v != null) {
+                @SuppressWarnings("unchecked")
+                SoftReference<DocuDirent> ref = (SoftReference<DocuDirent>) v;
+                df = ref.get();
+            }
+            if (df == null) {
+                df = createView(l, index);
+            }
+            if (l.pinDepth > 0) {
+                l.views[index] = df;
+                ++l.numPinned;
+            } else if (df != v) {
+                l.views[index] = new SoftReference<DocuDirent>(df);
+            }
+            return df;
+        }
+    }
+
+    /**
+     * Creates the ImageFileSet for the file at index i in the Listing.
+     *
+     * @param l
+     * @param i
+     * @return
+     */
+    protected DocuDirent createView(Listing l, int i) {
+        String fn = l.names.get(i);
+        ImageFileSet fs = new ImageFileSet(new File(dir, fn), this);
+        for (int j = 0; j < l.dirs.length; ++j) {
+            String ifn = l.getName(j, i);
+            if (ifn != null) {
+                fs.add(new CompactImageFile(ifn, fs, l.dirs[j], l, j, i));
+            }
+        }
+        return fs;
+    }
+
+    @Override
+    public int indexOf(String fn) {
+        if (!isRead()) {
+            // read directory now
+            if (!readDir()) {
+                return -1;
+            }
+        }
+        Listing l = listing;
+        if (l == null) {
+            return super.indexOf(fn);
+        }
+        // search for exact match
+        int idx = l.index.indexOf(fn);
+        if (idx >= 0) {
+            return idx;
+        }
+        // try matches without extension
+        return l.index.indexOfBasename(fn);
+    }
+
+    @Override
+    public DocuDirent find(String fn) {
+        int i = indexOf(fn);
+        if (i >= 0) {
+            return get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Read directory metadata.
+     *
+     * The ImageFileSets that receive metadata are kept.
+     */
+    @Override
+    public void readMeta() {
+        Listing l = listing;
+        if (l == null) {
+            super.readMeta();
+            return;
+        }
+        synchronized (l) {
+            ++l.pinDepth;
+        }
+        try {
+            super.readMeta();
+        } finally {
+            synchronized (l) {
+                if (--l.pinDepth == 0) {
+                    l.unpinViews();
+                }
+            }
+        }
+    }
+
+    /**
+     * check directory metadata.
+     *
+     * The ImageFileSets that receive metadata are kept.
+     */
+    @Override
+    public void checkMeta() {
+        Listing l = listing;
+        if (l == null) {
+            super.checkMeta();
+            return;
+        }
+        synchronized (l) {
+            ++l.pinDepth;
+        }
+        try {
+            super.checkMeta();
+        } finally {
+            synchronized (l) {
+                if (--l.pinDepth == 0) {
+                    l.unpinViews();
+                }
+            }
+        }
+    }
+
+}
@@ -47,6 +47,10 @@ public class Directory {
 	protected Directory parent = null;
 	/** list of filenames in the directory */
 	protected String[] list = null;
+	/** index of the filenames (or null) */
+	protected FilenameIndex listIndex = null;
+	/** modification time of the directory when the list was read */
+	protected long listMTime = 0;
 
 	/** Default constructor.
 	 * 
@@ -90,9 +94,12 @@ public class Directory {
 	public boolean readDir() {
 		if (dir != null) {
 			//logger.debug("reading dir: "+dir.getPath());
+			listMTime = dir.lastModified();
 			list = dir.list();
+			listIndex = null;
 			if (list != null) {
 				Arrays.sort(list);
+				listIndex = new FilenameIndex(list);
 			}
 			//logger.debug("  done");
 		}
@@ -140,9 +147,42 @@ public class Directory {
 	 */
 	public void setFilenames(String[] filenames) {
 		this.list = filenames;
+		this.listIndex = null;
+	}
+	
+	/**
+	 * Returns the index of the filenames (null if the filenames have not been read).
+	 * 
+	 * @return
+	 */
+	public FilenameIndex getFilenameIndex() {
+		FilenameIndex idx = listIndex;
+		if (idx == null) {
+			String[] l = list;
+			if (l != null) {
+				idx = new FilenameIndex(l);
+				listIndex = idx;
+			}
+		}
+		return idx;
 	}
 	
 	public void clearFilenames() {
 		this.list = null;
+		this.listIndex = null;
+	}
+
+	/**
+	 * @return modification time of the directory when the filenames were read.
+	 */
+	public long getListMTime() {
+		return listMTime;
+	}
+
+	/**
+	 * @param mtime modification time of the directory when the filenames were read.
+	 */
+	public void setListMTime(long mtime) {
+		this.listMTime = mtime;
 	}
 }
@@ -27,8 +27,16 @@ package digilib.io;
  * Created on 03.03.2003
  */
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -39,7 +47,7 @@ import digilib.io.FileOps.FileClass;
 /**
  * @author casties
  */
-public class DocuDirCache {
+public class DocuDirCache implements DocuDirCacheMBean {
 
 	/** general logger for this class */
 	protected static Logger logger = Logger.getLogger(DocuDirCache.class);
@@ -59,6 +67,54 @@ public class DocuDirCache {
 	/** number of cache misses */
 	protected AtomicInteger misses = new AtomicInteger(0);
 
+	/** number of evicted directories */
+	protected AtomicInteger evictions = new AtomicInteger(0);
+
+	/** directories that are being loaded */
+	protected ConcurrentMap<String, FutureTask<DocuDirectory>> loading = new ConcurrentHashMap<String, FutureTask<DocuDirectory>>();
+
+	/** number of requests that waited for a directory loaded by another thread */
+	protected AtomicInteger sharedLoads = new AtomicInteger(0);
+
+	/** max number of directories in the cache (0 means no limit) */
+	protected int maxDirs = 0;
+
+	/** max number of files in the cache (0 means no limit) */
+	protected int maxFiles = 0;
+
+	/** max time since last access of a directory in ms (0 means no limit) */
+	protected long maxIdleTime = 0;
+
+	/** time of the last check for idle directories */
+	protected volatile long lastIdleCheck = 0;
+
+	/** eviction is running */
+	protected AtomicBoolean evicting = new AtomicBoolean(false);
+
+	/** checks directories for modifications in the background (null means check on every access) */
+	protected volatile DocuDirWatcher watcher = null;
+
+	/** snapshot to restore directories from (null means no snapshot) */
+	protected volatile DocuDirSnapshot snapshot = null;
+
+	/**
+	 * Directory with its access time at the time of eviction.
+	 */
+	protected static class CachedDir implements Comparable<CachedDir> {
+		public DocuDirectory dir;
+		public long atime;
+
+		public CachedDir(DocuDirectory dir) {
+			this.dir = dir;
+			this.atime = dir.getAccessTime();
+		}
+
+		@Override
+		public int compareTo(CachedDir o) {
+			return (atime < o.atime) ? -1 : ((atime == o.atime) ? 0 : 1);
+		}
+	}
+
 	/**
 	 * Constructor with digilib configuration and file class.
 	 * 
@@ -68,6 +124,11 @@ public class DocuDirCache {
 	public DocuDirCache(FileClass fc,
 			DigilibConfiguration dlConfig) {
 		this.fileClass = fc;
+		if (dlConfig != null) {
+			maxDirs = dlConfig.getAsInt("dircache-max-dirs");
+			maxFiles = dlConfig.getAsInt("dircache-max-files");
+			maxIdleTime = dlConfig.getAsInt("dircache-max-idle") * 1000L;
+		}
 	}
 
 	/**
@@ -87,6 +148,13 @@ public class DocuDirCache {
 		return (map != null) ? map.size() : 0;
 	}
 
+	/**
+	 * @return number of directories in the cache
+	 */
+	public int getNumDirs() {
+		return size();
+	}
+
 	/**
 	 * Add a DocuDirectory to the cache.
 	 * Always returns the correct Object from the cache, 
@@ -104,9 +172,174 @@ public class DocuDirCache {
 			return olddir;
 		}
 		numFiles.addAndGet(newdir.size());
+		newdir.setWatched(watcher != null);
+		checkLimits();
 		return newdir;
 	}
 
+	/**
+	 * Starts checking all cached directories for modifications in a background
+	 * thread every interval ms instead of on every access.
+	 * 
+	 * @param interval
+	 */
+	public synchronized void startWatcher(long interval) {
+		stopWatcher();
+		watcher = new DocuDirWatcher(map.values(), interval);
+		for (DocuDirectory dd : map.values()) {
+			dd.setWatched(true);
+		}
+		watcher.start();
+	}
+
+	/**
+	 * Stops checking directories in the background.
+	 */
+	public synchronized void stopWatcher() {
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+			for (DocuDirectory dd : map.values()) {
+				dd.setWatched(false);
+			}
+		}
+	}
+
+	/**
+	 * Opens the snapshot in file to restore directories from.
+	 * 
+	 * @param file
+	 * @param baseDirs
+	 */
+	public void openSnapshot(File file, String[] baseDirs) {
+		snapshot = DocuDirSnapshot.open(file, baseDirs);
+	}
+
+	/**
+	 * Writes a snapshot of the cached directories to file.
+	 * 
+	 * @param file
+	 * @param baseDirs
+	 */
+	public void writeSnapshot(File file, String[] baseDirs) {
+		// release the old snapshot first
+		snapshot = null;
+		DocuDirSnapshot.write(file, map.values(), baseDirs);
+	}
+
+	/**
+	 * Restores the contents of the new directory dd from the snapshot.
+	 * 
+	 * @param dd
+	 * @return if the directory was restored
+	 */
+	protected boolean restore(DocuDirectory dd) {
+		DocuDirSnapshot ss = snapshot;
+		if (ss != null && dd instanceof BaseDirDocuDirectory && dd.fileClass == FileClass.IMAGE) {
+			return ss.restore((BaseDirDocuDirectory) dd);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the DocuDirSnapshot or null
+	 */
+	public DocuDirSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the DocuDirWatcher or null
+	 */
+	public DocuDirWatcher getWatcher() {
+		return watcher;
+	}
+
+	/**
+	 * Evicts directories if the cache is over its limits or directories have
+	 * been idle for too long.
+	 * 
+	 * Evicts the least recently used directories until the cache is below 90%
+	 * of its limits in a background thread. Directories that were evicted stay
+	 * valid for their children and for callers that still hold them.
+	 */
+	protected void checkLimits() {
+		long now = System.currentTimeMillis();
+		boolean overDirs = (maxDirs > 0 && map.size() > maxDirs);
+		boolean overFiles = (maxFiles > 0 && numFiles.get() > maxFiles);
+		// check for idle directories every tenth of the idle time
+		boolean checkIdle = (maxIdleTime > 0 && now - lastIdleCheck > maxIdleTime / 10);
+		if (!(overDirs || overFiles || checkIdle)) {
+			return;
+		}
+		if (!evicting.compareAndSet(false, true)) {
+			// someone else is evicting
+			return;
+		}
+		if (checkIdle) {
+			lastIdleCheck = now;
+		}
+		final long t = now;
+		final boolean ci = checkIdle;
+		Thread evictor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					evict(t, ci);
+				} catch (RuntimeException e) {
+					logger.error("Error evicting directories: ", e);
+				} finally {
+					evicting.set(false);
+				}
+			}
+		}, "digilib-dircache-evict");
+		evictor.setDaemon(true);
+		evictor.setPriority(Thread.MIN_PRIORITY);
+		evictor.start();
+	}
+
+	/**
+	 * Removes idle directories (if checkIdle) and the least recently used
+	 * directories until the cache is below 90% of its limits.
+	 * 
+	 * @param now
+	 * @param checkIdle
+	 */
+	protected void evict(long now, boolean checkIdle) {
+		List<CachedDir> dirs = new ArrayList<CachedDir>(map.size());
+		for (DocuDirectory dd : map.values()) {
+			dirs.add(new CachedDir(dd));
+		}
+		// oldest first
+		Collections.sort(dirs);
+		int targetDirs = (maxDirs > 0) ? (int) (maxDirs * 0.9) : Integer.MAX_VALUE;
+		int targetFiles = (maxFiles > 0) ? (int) (maxFiles * 0.9) : Integer.MAX_VALUE;
+		long idleTime = (checkIdle) ? now - maxIdleTime : 0;
+		int ne = 0;
+		for (CachedDir cd : dirs) {
+			DocuDirectory dd = cd.dir;
+			boolean over = (map.size() > targetDirs || numFiles.get() > targetFiles);
+			if (!over && cd.atime >= idleTime) {
+				// all other directories are newer
+				break;
+			}
+			if (map.remove(dd.getDirName(), dd)) {
+				// evicted directories are not checked by the watcher
+				dd.setWatched(false);
+				int nf = numFiles.addAndGet(-dd.size());
+				if (nf < 0) {
+					// numFiles is only approximate
+					numFiles.compareAndSet(nf, 0);
+				}
+				++ne;
+			}
+		}
+		if (ne > 0) {
+			evictions.addAndGet(ne);
+			logger.debug("DocuDirCache evicted " + ne + " directories, " + map.size() + " left");
+		}
+	}
+
 	/**
 	 * Add a directory to the cache and check its parents.
 	 * Always returns the correct Object from the cache, 
@@ -134,6 +367,87 @@ public class DocuDirCache {
 		return dd;
 	}
 
+	/**
+	 * Loads the DocuDirectory with the pathname <code>dn</code> and adds it
+	 * to the cache if it is valid.
+	 * 
+	 * Concurrent loads of the same directory are done only once. The other
+	 * threads wait for the result.
+	 * 
+	 * @param dn
+	 *            digilib pathname
+	 * @return the (possibly invalid) DocuDirectory
+	 */
+	protected DocuDirectory loadDir(final String dn) {
+		FutureTask<DocuDirectory> task = new FutureTask<DocuDirectory>(new Callable<DocuDirectory>() {
+			@Override
+			public DocuDirectory call() throws Exception {
+				// another thread may have finished loading in the meantime
+				DocuDirectory dd = map.get(dn);
+				if (dd != null) {
+					return dd;
+				}
+				dd = DocuDirectoryFactory.getDocuDirectoryInstance(dn, fileClass);
+				if (dd.isValid()) {
+					// add to the cache
+					restore(dd);
+					dd.refresh();
+					dd = putDir(dd);
+				}
+				return dd;
+			}
+		});
+		FutureTask<DocuDirectory> running = loading.putIfAbsent(dn, task);
+		boolean shared = (running != null);
+		if (!shared) {
+			// we load the directory
+			try {
+				task.run();
+			} finally {
+				loading.remove(dn, task);
+			}
+			running = task;
+		}
+		// wait for the result
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					DocuDirectory dd = running.get();
+					if (shared && dd.isValid()) {
+						sharedLoads.incrementAndGet();
+					}
+					return dd;
+				} catch (InterruptedException e) {
+					// we need the directory -- try again
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the cached directory for the pathname fn.
+	 * 
+	 * @param fn
+	 * @return
+	 */
+	protected String resolveName(String fn) {
+		return fn;
+	}
+
     /**
      * Returns the DocuDirent with the pathname <code>fn</code> and the index
      * <code>in</code> of FileClass fc.
@@ -170,6 +484,7 @@ public class DocuDirCache {
 	 * @return
 	 */
 	public DocuDirent getFile(String fn, int in) {
+		fn = resolveName(fn);
 		DocuDirectory dd;
 		// file number is 1-based, vector index is 0-based
 		int n = in - 1;
@@ -181,29 +496,20 @@ public class DocuDirCache {
 			/*
 			 * try fn as a directory
 			 */
-			dd = DocuDirectoryFactory.getDocuDirectoryInstance(fn, fileClass);
-			if (dd.isValid()) {
-			    // add to the cache
-			    dd.refresh();
-			    dd = putDir(dd);
-			} else {
+			dd = loadDir(fn);
+			if (!dd.isValid()) {
 				/*
 				 * maybe it's a file
 				 */
 				// get the parent directory string (like we store it in the cache)
-				String d = FileOps.parent(fn);
+				String d = resolveName(FileOps.parent(fn));
 				// try it in the cache
                 // logger.debug(fn + " is a file in dir " + d);
 				dd = map.get(d);
 				if (dd == null) {
 					// try to read from disk
-					dd = DocuDirectoryFactory.getDocuDirectoryInstance(d, fileClass);
-					if (dd.isValid()) {
-						// add to the cache
-                        // logger.debug(dd + " is valid");
-					    dd.refresh();
-						dd = putDir(dd);
-					} else {
+					dd = loadDir(d);
+					if (!dd.isValid()) {
 						// invalid path
 						return null;
 					}
@@ -239,6 +545,7 @@ public class DocuDirCache {
 	 * @return
 	 */
 	public DocuDirectory getDirectory(String fn) {
+		fn = resolveName(fn);
 		DocuDirectory dd;
 		// first, assume fn is a directory and look in the cache
 		dd = map.get(fn);
@@ -246,23 +553,15 @@ public class DocuDirCache {
 			// cache miss
 			misses.incrementAndGet();
 			// see if it's a directory
-			dd = DocuDirectoryFactory.getDocuDirectoryInstance(fn, fileClass);
-			if (dd.isValid()) {
-			    // add to the cache
-                dd.refresh();
-			    dd = putDir(dd);
-			} else {
+			dd = loadDir(fn);
+			if (!dd.isValid()) {
 				// try the parent directory in the cache
-				String pn = FileOps.parent(fn);
+				String pn = resolveName(FileOps.parent(fn));
                 dd = map.get(pn);
 				if (dd == null) {
 					// try to read from disk
-					dd = DocuDirectoryFactory.getDocuDirectoryInstance(pn, fileClass);
-					if (dd.isValid()) {
-						// add to the cache
-		                dd.refresh();
-						dd = putDir(dd);
-					} else {
+					dd = loadDir(pn);
+					if (!dd.isValid()) {
 						// invalid path
 						return null;
 					}
@@ -303,6 +602,20 @@ public class DocuDirCache {
 		return misses.get();
 	}
 
+	/**
+	 * @return number of evicted directories
+	 */
+	public int getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of requests that waited for a directory loaded by another thread
+	 */
+	public int getSharedLoads() {
+		return sharedLoads.get();
+	}
+
 	/**
 	 * @return
 	 */
@@ -0,0 +1,46 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Directory cache.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * JMX interface of DocuDirCache.
+ *
+ * @author agent
+ *
+ */
+public interface DocuDirCacheMBean {
+
+    /** number of cached directories */
+    public int getNumDirs();
+
+    public int getNumFiles();
+
+    public int getHits();
+
+    public int getMisses();
+
+    public int getEvictions();
+
+    public int getSharedLoads();
+
+}
@@ -0,0 +1,310 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Background crawler that fills the directory cache.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import digilib.util.DigilibJobCenter;
+
+/**
+ * Walks the directories of the first base directory in background threads,
+ * adds them to the DocuDirCache and identifies all images.
+ *
+ * The crawler runs on low-priority threads, limits the number of directories
+ * per second and pauses while the image job center has work.
+ *
+ * @author agent
+ *
+ */
+public class DocuDirCrawler {
+
+    protected static Logger logger = Logger.getLogger(DocuDirCrawler.class);
+
+    /** time to wait while the image job center is busy (ms) */
+    protected static final long BUSY_WAIT = 200;
+
+    /** the cache to fill */
+    protected DocuDirCache cache;
+
+    /** the base directory to walk */
+    protected File baseDir;
+
+    /** max depth of directories (0 means no limit) */
+    protected int maxDepth;
+
+    /** number of threads */
+    protected int numThreads;
+
+    /** min time between two directories (ms) */
+    protected long minInterval;
+
+    /** time when the next directory may be read (ms) */
+    protected long nextTime = 0;
+
+    /** the image job center to yield to (may be null) */
+    protected DigilibJobCenter<?> jobCenter;
+
+    /** the crawler threads */
+    protected ExecutorService executor = null;
+
+    /** number of directories that are queued or being read */
+    protected AtomicInteger numPending = new AtomicInteger(0);
+
+    /** finished() has been called */
+    protected AtomicBoolean done = new AtomicBoolean(false);
+
+    /** number of directories read */
+    protected AtomicInteger numDirs = new AtomicInteger(0);
+
+    /** number of images identified */
+    protected AtomicInteger numImages = new AtomicInteger(0);
+
+    /** time the crawler was started */
+    protected long startTime;
+
+    /**
+     * Creates a crawler for the directories in baseDir.
+     *
+     * @param cache
+     *            the cache to fill
+     * @param baseDir
+     *            the (first) base directory
+     * @param maxDepth
+     *            max depth of directories (0 means no limit)
+     * @param numThreads
+     *            number of threads
+     * @param maxRate
+     *            max number of directories per second (0 means no limit)
+     * @param jobCenter
+     *            image job center to yield to (or null)
+     */
+    public DocuDirCrawler(DocuDirCache cache, File baseDir, int maxDepth, int numThreads, int maxRate,
+            DigilibJobCenter<?> jobCenter) {
+        this.cache = cache;
+        this.baseDir = baseDir;
+        this.maxDepth = maxDepth;
+        this.numThreads = Math.max(numThreads, 1);
+        this.minInterval = (maxRate > 0) ? 1000L / maxRate : 0;
+        this.jobCenter = jobCenter;
+    }
+
+    /**
+     * Starts walking the directories.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private AtomicInteger num = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "digilib-crawler-" + num.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        startTime = System.currentTimeMillis();
+        done.set(false);
+        logger.info("Starting DocuDirCrawler for " + baseDir + " with " + numThreads + " threads");
+        // hold a pending token so that fast tasks don't finish while we submit
+        numPending.incrementAndGet();
+        // start with the directories in the base directory
+        submitSubdirs(baseDir, "", 0);
+        if (numPending.decrementAndGet() == 0) {
+            finished();
+        }
+    }
+
+    /**
+     * Stops walking the directories.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Submits all subdirectories of dir with digilib path dirName and depth.
+     *
+     * @param dir
+     * @param dirName
+     * @param depth
+     */
+    protected void submitSubdirs(File dir, String dirName, int depth) {
+        if (maxDepth > 0 && depth >= maxDepth) {
+            return;
+        }
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String n : names) {
+            if (n.startsWith(".") || !new File(dir, n).isDirectory()) {
+                continue;
+            }
+            final String dn = (dirName.length() > 0) ? dirName + "/" + n : n;
+            final int dd = depth + 1;
+            ExecutorService exec = executor;
+            if (exec == null) {
+                return;
+            }
+            numPending.incrementAndGet();
+            try {
+                exec.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            crawl(dn, dd);
+                        } catch (InterruptedException e) {
+                            // we are stopped
+                            Thread.currentThread().interrupt();
+                        } catch (Exception e) {
+                            logger.error("Error crawling " + dn + ": " + e);
+                        } finally {
+                            if (numPending.decrementAndGet() == 0) {
+                                finished();
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // we are stopped
+                numPending.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the directory with digilib path dirName, identifies its images and
+     * submits its subdirectories.
+     *
+     * @param dirName
+     * @param depth
+     * @throws InterruptedException
+     */
+    protected void crawl(String dirName, int depth) throws InterruptedException {
+        waitForTurn();
+        DocuDirectory dd = cache.getDirectory(dirName);
+        if (dd == null || !dirName.equals(dd.getDirName())) {
+            // not a valid directory
+            return;
+        }
+        numDirs.incrementAndGet();
+        // identify all images
+        for (int i = 0; i < dd.size(); ++i) {
+            DocuDirent df = dd.get(i);
+            if (df instanceof ImageSet) {
+                ImageSet is = (ImageSet) df;
+                for (int j = 0; j < is.size(); ++j) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    waitForIdle();
+                    is.get(j).getSize();
+                    numImages.incrementAndGet();
+                }
+            }
+        }
+        submitSubdirs(dd.getDir(), dirName, depth);
+    }
+
+    /**
+     * Waits until the rate limit allows the next directory and the image job
+     * center is idle.
+     *
+     * @throws InterruptedException
+     */
+    protected void waitForTurn() throws InterruptedException {
+        if (minInterval > 0) {
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                long t = Math.max(now, nextTime);
+                nextTime = t + minInterval;
+                wait = t - now;
+            }
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+        waitForIdle();
+    }
+
+    /**
+     * Waits while the image job center has running or waiting jobs.
+     *
+     * @throws InterruptedException
+     */
+    protected void waitForIdle() throws InterruptedException {
+        if (jobCenter == null) {
+            return;
+        }
+        while (jobCenter.getRunningJobs() > 0 || jobCenter.getWaitingJobs() > 0) {
+            Thread.sleep(BUSY_WAIT);
+        }
+    }
+
+    /**
+     * Called when all directories are done.
+     */
+    protected void finished() {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        logger.info("DocuDirCrawler finished " + baseDir + ": " + numDirs.get() + " directories, "
+                + numImages.get() + " images in " + (System.currentTimeMillis() - startTime) + "ms");
+        stop();
+    }
+
+    /**
+     * Returns if the crawler is running.
+     *
+     * @return
+     */
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    public int getNumDirs() {
+        return numDirs.get();
+    }
+
+    public int getNumImages() {
+        return numImages.get();
+    }
+
+}
@@ -0,0 +1,484 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Snapshot of the directory cache.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import digilib.io.FileOps.FileClass;
+import digilib.util.ImageSize;
+
+/**
+ * Binary snapshot of the directories in a DocuDirCache.
+ *
+ * The snapshot contains the file lists of the directories, the matching files
+ * in the scaled directories and the image sizes that were known. It is written
+ * with write() when the cache is shut down.
+ *
+ * An open snapshot is memory-mapped. Directories are restored from the
+ * snapshot on demand with restore() if their modification time and the
+ * modification times of their scaled directories are unchanged.
+ *
+ * @author agent
+ *
+ */
+public class DocuDirSnapshot {
+
+    protected static Logger logger = Logger.getLogger(DocuDirSnapshot.class);
+
+    /** magic number at the start of the snapshot file */
+    protected static final int FILE_MAGIC = 0x444c4453;
+
+    /** version of the snapshot file format */
+    protected static final int FILE_VERSION = 2;
+
+    /** file flag: the scaled images have been added */
+    protected static final int FLAG_FILLED = 1;
+
+    /** file flag: the file has been checked for pyramid levels */
+    protected static final int FLAG_LEVELS_CHECKED = 2;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** the mapped snapshot file */
+    protected ByteBuffer data;
+
+    /** offsets of the directory records by directory name */
+    protected Map<String, Integer> index;
+
+    protected AtomicInteger numRestored = new AtomicInteger(0);
+    protected AtomicInteger numRejected = new AtomicInteger(0);
+
+    /**
+     * Creates a snapshot from the mapped data and the index.
+     *
+     * @param data
+     * @param index
+     */
+    protected DocuDirSnapshot(ByteBuffer data, Map<String, Integer> index) {
+        this.data = data;
+        this.index = index;
+    }
+
+    /**
+     * Opens the snapshot in file for the base directories baseDirs. Returns
+     * null if there is no usable snapshot.
+     *
+     * @param file
+     * @param baseDirs
+     * @return
+     */
+    public static DocuDirSnapshot open(File file, String[] baseDirs) {
+        if (file == null || !file.canRead()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel fc = raf.getChannel();
+            if (fc.size() > Integer.MAX_VALUE) {
+                logger.warn("DocuDirSnapshot " + file + " is too big. Ignoring it.");
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer data = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            if (data.getInt() != FILE_MAGIC || data.getInt() != FILE_VERSION) {
+                logger.warn("DocuDirSnapshot " + file + " has wrong format. Ignoring it.");
+                return null;
+            }
+            long indexOffset = data.getLong();
+            int nb = data.getInt();
+            String[] bds = new String[nb];
+            for (int i = 0; i < nb; ++i) {
+                bds[i] = getString(data);
+            }
+            if (!Arrays.equals(bds, baseDirs)) {
+                logger.info("DocuDirSnapshot " + file + " has different base directories. Ignoring it.");
+                return null;
+            }
+            // read the index
+            data.position((int) indexOffset);
+            int nd = data.getInt();
+            Map<String, Integer> index = new HashMap<String, Integer>(nd * 4 / 3 + 1);
+            for (int i = 0; i < nd; ++i) {
+                String dn = getString(data);
+                index.put(dn, data.getInt());
+            }
+            logger.info("DocuDirSnapshot " + file + " with " + nd + " directories");
+            return new DocuDirSnapshot(data, index);
+        } catch (IOException e) {
+            logger.error("Error reading DocuDirSnapshot " + file + ": " + e);
+        } catch (BufferUnderflowException e) {
+            logger.error("DocuDirSnapshot " + file + " is truncated. Ignoring it.");
+        } catch (IllegalArgumentException e) {
+            logger.error("DocuDirSnapshot " + file + " is corrupt. Ignoring it.");
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Restores the contents of the directory dd from the snapshot. Returns
+     * false if the directory is not in the snapshot or has been modified.
+     *
+     * @param dd
+     * @return
+     */
+    public boolean restore(BaseDirDocuDirectory dd) {
+        Integer offset = index.get(dd.getDirName());
+        if (offset == null) {
+            return false;
+        }
+        // own position for this thread
+        ByteBuffer buf = data.duplicate();
+        buf.position(offset);
+        try {
+            // check modification times
+            long mtime = buf.getLong();
+            if (mtime != dd.getDir().lastModified()) {
+                numRejected.incrementAndGet();
+                return false;
+            }
+            String[] baseDirNames = dd.getBaseDirNames();
+            int nb = buf.getInt();
+            if (nb != baseDirNames.length) {
+                numRejected.incrementAndGet();
+                return false;
+            }
+            Directory[] dirs = new Directory[nb];
+            dirs[0] = dd;
+            for (int j = 1; j < nb; ++j) {
+                long smtime = buf.getLong();
+                File sd = new File(baseDirNames[j], dd.getDirName());
+                long cmtime = sd.lastModified();
+                if (smtime != cmtime) {
+                    // scaled directory has been modified, created or deleted
+                    numRejected.incrementAndGet();
+                    return false;
+                }
+                if (smtime != 0) {
+                    dirs[j] = new Directory(sd);
+                    dirs[j].setListMTime(smtime);
+                }
+            }
+            // read files
+            int nf = buf.getInt();
+            List<DocuDirent> files = new ArrayList<DocuDirent>(nf);
+            for (int i = 0; i < nf; ++i) {
+                String fn = getString(buf);
+                File f = new File(dd.getDir(), fn);
+                int flags = buf.get();
+                ImageFileSet fs;
+                if ((flags & FLAG_FILLED) != 0) {
+                    fs = new ImageFileSet(f, dd);
+                } else {
+                    // only the first image -- scaled images are added on demand
+                    fs = new ImageFileSet(f, dirs);
+                }
+                fs.setLevelsChecked((flags & FLAG_LEVELS_CHECKED) != 0);
+                int ni = buf.getInt();
+                for (int k = 0; k < ni; ++k) {
+                    int j = buf.get();
+                    String ifn = (j == 0) ? fn : getString(buf);
+                    int idx = buf.getInt();
+                    int w = buf.getInt();
+                    int h = buf.getInt();
+                    String mt = getString(buf);
+                    ImageFile imf;
+                    if ((flags & FLAG_FILLED) != 0) {
+                        imf = new ImageFile(ifn, fs, dirs[j]);
+                        imf.setImageIndex(idx);
+                        fs.add(imf);
+                    } else {
+                        imf = (ImageFile) fs.get(0);
+                    }
+                    if (mt.length() > 0) {
+                        imf.setMimetype(mt.intern());
+                    }
+                    if (w >= 0 && h >= 0) {
+                        imf.setSize(new ImageSize(w, h));
+                    }
+                }
+                files.add(fs);
+            }
+            dd.restore(dirs, files, mtime);
+            numRestored.incrementAndGet();
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("Error restoring " + dd.getDirName() + " from DocuDirSnapshot: " + e);
+            numRejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the directories dirs to file.
+     *
+     * Only directories of image files that have been read are written.
+     *
+     * @param file
+     * @param dirs
+     * @param baseDirs
+     */
+    public static void write(File file, Collection<DocuDirectory> dirs, String[] baseDirs) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            long t0 = System.currentTimeMillis();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            // offset of the index (written later)
+            out.writeLong(0);
+            out.writeInt(baseDirs.length);
+            for (String bd : baseDirs) {
+                putString(out, bd);
+            }
+            Map<String, Integer> index = new HashMap<String, Integer>();
+            // each directory is written to the buffer first so that a bad directory can be skipped
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream bufOut = new DataOutputStream(buf);
+            for (DocuDirectory d : dirs) {
+                if (!(d instanceof BaseDirDocuDirectory) || d.fileClass != FileClass.IMAGE) {
+                    continue;
+                }
+                BaseDirDocuDirectory dd = (BaseDirDocuDirectory) d;
+                if (index.containsKey(dd.getDirName())) {
+                    // already written
+                    continue;
+                }
+                int offset = out.size();
+                if (offset == Integer.MAX_VALUE) {
+                    throw new IOException("snapshot too big");
+                }
+                buf.reset();
+                try {
+                    if (!writeDir(bufOut, dd)) {
+                        continue;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Skipping directory " + dd.getDirName() + " in DocuDirSnapshot: " + e);
+                    continue;
+                }
+                bufOut.flush();
+                buf.writeTo(out);
+                index.put(dd.getDirName(), offset);
+            }
+            // write the index
+            int indexOffset = out.size();
+            out.writeInt(index.size());
+            for (Map.Entry<String, Integer> e : index.entrySet()) {
+                putString(out, e.getKey());
+                out.writeInt(e.getValue());
+            }
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("snapshot too big");
+            }
+            out.close();
+            out = null;
+            // set the index offset
+            RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+            try {
+                raf.seek(8);
+                raf.writeLong(indexOffset);
+            } finally {
+                raf.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                // rename doesn't overwrite on some platforms
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("unable to rename " + tmpFile);
+                }
+            }
+            logger.info("Wrote DocuDirSnapshot " + file + " with " + index.size() + " directories in "
+                    + (System.currentTimeMillis() - t0) + "ms");
+        } catch (IOException e) {
+            logger.error("Error writing DocuDirSnapshot " + file + ": " + e);
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the record of the directory dd. Returns false if the directory
+     * can't be written.
+     *
+     * @param out
+     * @param dd
+     * @return
+     * @throws IOException
+     */
+    protected static boolean writeDir(DataOutputStream out, BaseDirDocuDirectory dd) throws IOException {
+        // take a consistent view of the directory
+        Directory[] dirs;
+        List<DocuDirent> files;
+        long mtime;
+        synchronized (dd) {
+            dirs = dd.getScaledDirs();
+            mtime = dd.getDirMTime();
+            // use get() because the directory may create its files on demand
+            int nf = dd.size();
+            files = new ArrayList<DocuDirent>(nf);
+            for (int i = 0; i < nf; ++i) {
+                files.add(dd.get(i));
+            }
+        }
+        if (mtime == 0 || dirs == null) {
+            // not read
+            return false;
+        }
+        for (DocuDirent df : files) {
+            if (!(df instanceof ImageFileSet)) {
+                return false;
+            }
+        }
+        out.writeLong(mtime);
+        out.writeInt(dirs.length);
+        for (int j = 1; j < dirs.length; ++j) {
+            out.writeLong((dirs[j] != null) ? dirs[j].getListMTime() : 0);
+        }
+        out.writeInt(files.size());
+        for (DocuDirent df : files) {
+            ImageFileSet fs = (ImageFileSet) df;
+            putString(out, fs.getName());
+            // don't use size() and get() because they add the scaled images
+            List<ImageInput> images;
+            int flags = 0;
+            synchronized (fs) {
+                images = new ArrayList<ImageInput>(fs.list);
+                if (fs.isFilled()) {
+                    flags |= FLAG_FILLED;
+                }
+                if (fs.isLevelsChecked()) {
+                    flags |= FLAG_LEVELS_CHECKED;
+                }
+            }
+            if ((flags & FLAG_FILLED) == 0) {
+                // only the first image
+                images = images.subList(0, 1);
+            }
+            out.writeByte(flags);
+            out.writeInt(images.size());
+            for (ImageInput ii : images) {
+                ImageFile imf = (ImageFile) ii;
+                int j = 0;
+                while (j < dirs.length && dirs[j] != imf.getDirectory()) {
+                    ++j;
+                }
+                if (j == dirs.length) {
+                    throw new IOException("unknown directory in " + imf);
+                }
+                out.writeByte(j);
+                if (j != 0) {
+                    putString(out, imf.getName());
+                }
+                out.writeInt(imf.getImageIndex());
+                // don't use getSize() because it identifies the image
+                ImageSize is = imf.pixelSize;
+                out.writeInt((is != null) ? is.getWidth() : -1);
+                out.writeInt((is != null) ? is.getHeight() : -1);
+                putString(out, (imf.mimetype != null) ? imf.mimetype : "");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the string s as length and UTF-8 bytes.
+     *
+     * @param out
+     * @param s
+     * @throws IOException
+     */
+    protected static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Reads a string written by putString.
+     *
+     * @param buf
+     * @return
+     */
+    protected static String getString(ByteBuffer buf) {
+        int len = buf.getInt();
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, UTF8);
+    }
+
+    /**
+     * Returns the number of directories in the snapshot.
+     *
+     * @return
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public int getNumRestored() {
+        return numRestored.get();
+    }
+
+    public int getNumRejected() {
+        return numRejected.get();
+    }
+
+}
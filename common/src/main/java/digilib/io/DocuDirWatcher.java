@@ -0,0 +1,139 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Background checking of cached directories for modifications.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Checks the directories in a DocuDirCache for modifications in a background
+ * thread.
+ *
+ * All directories in the cache are checked every interval and marked stale if
+ * they were modified. Watched directories don't check the file system on
+ * every refresh() but only after they were marked stale.
+ *
+ * @author agent
+ *
+ */
+public class DocuDirWatcher implements Runnable {
+
+    protected static Logger logger = Logger.getLogger(DocuDirWatcher.class);
+
+    /** the directories to check */
+    protected Collection<DocuDirectory> dirs;
+
+    /** time between checks in ms */
+    protected long interval;
+
+    /** the checking thread */
+    protected Thread thread = null;
+
+    /** number of directories that were marked stale */
+    protected volatile int numStale = 0;
+
+    /**
+     * Creates a watcher for the directories dirs that checks every interval
+     * ms.
+     *
+     * @param dirs
+     * @param interval
+     */
+    public DocuDirWatcher(Collection<DocuDirectory> dirs, long interval) {
+        this.dirs = dirs;
+        this.interval = interval;
+    }
+
+    /**
+     * Starts the checking thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "digilib-dirwatcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+            logger.info("Checking cached directories every " + interval + "ms");
+        }
+    }
+
+    /**
+     * Stops the checking thread.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Checks all directories once.
+     *
+     * @return number of directories that were marked stale
+     */
+    public int check() {
+        int ns = 0;
+        for (DocuDirectory dd : dirs) {
+            if (!dd.stale && dd.checkModified()) {
+                ++ns;
+            }
+        }
+        return ns;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(interval);
+                long t0 = System.currentTimeMillis();
+                int ns = 0;
+                try {
+                    ns = check();
+                } catch (RuntimeException e) {
+                    logger.error("Error checking directories: ", e);
+                }
+                numStale += ns;
+                if (ns > 0) {
+                    logger.debug("DocuDirWatcher marked " + ns + " directories stale in "
+                            + (System.currentTimeMillis() - t0) + "ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            // we are done
+        }
+        logger.debug("DocuDirWatcher stopped.");
+    }
+
+    /**
+     * Returns the number of directories that were marked stale.
+     *
+     * @return
+     */
+    public int getNumStale() {
+        return numStale;
+    }
+
+}
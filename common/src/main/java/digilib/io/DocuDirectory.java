@@ -55,6 +55,9 @@ public abstract class DocuDirectory extends Directory {
 	/** list of files (DocuDirent) */
 	protected List<DocuDirent> files = null;
 
+	/** index of the names of the files (or null) */
+	protected FilenameIndex fileIndex = null;
+
 	/** directory object is valid (exists on disk) */
 	protected boolean isValid = false;
 
@@ -70,6 +73,12 @@ public abstract class DocuDirectory extends Directory {
 	/** time directory was last modified on the file system */
 	protected long dirMTime = 0;
 
+	/** directory is checked for modifications by a DocuDirWatcher */
+	protected volatile boolean watched = false;
+
+	/** directory may have been modified on the file system */
+	protected volatile boolean stale = true;
+
 	/**
 	 * Configure object with digilib directory path and a parent DocuDirCache.
 	 * 
@@ -91,6 +100,7 @@ public abstract class DocuDirectory extends Directory {
 		this.fileClass = fileClass;
 		// clear directory list
 		files = new ArrayList<DocuDirent>();
+		fileIndex = null;
 		dirMTime = 0;
 		// the first directory has to exist
 		dir = new File(path);
@@ -156,19 +166,54 @@ public abstract class DocuDirectory extends Directory {
 	/**
 	 * Check to see if the directory has been modified and reread if necessary.
 	 * 
+	 * If the directory is watched the file system is only checked after the
+	 * watcher marked the directory stale.
+	 * 
 	 * @return boolean the directory is valid
 	 */
     public boolean refresh() {
         if (isValid) {
-            if (dir.lastModified() > dirMTime) {
-                // on-disk modification time is more recent
-                readDir();
+            if (!watched || stale) {
+                stale = false;
+                if (dir.lastModified() > dirMTime) {
+                    // on-disk modification time is more recent
+                    readDir();
+                }
             }
             touch();
         }
         return isValid;
     }
 
+    /**
+     * Check to see if the directory has been modified on the file system and
+     * mark it stale if necessary.
+     * 
+     * @return boolean the directory is stale
+     */
+    public boolean checkModified() {
+        if (isValid && !stale && dir.lastModified() > dirMTime) {
+            stale = true;
+        }
+        return stale;
+    }
+
+    /**
+     * Mark the directory as possibly modified on the file system.
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Set if the directory is checked for modifications by a watcher.
+     * 
+     * @param watched
+     */
+    public void setWatched(boolean watched) {
+        this.watched = watched;
+    }
+
 
 	/**
 	 * Read directory metadata.
@@ -242,6 +287,16 @@ public abstract class DocuDirectory extends Directory {
 		if (fileList == null) {
 			return -1;
 		}
+		FilenameIndex index = fileIndex;
+		if (index != null && index.size() == fileList.size()) {
+			// search for exact match
+			int idx = index.indexOf(fn);
+			if (idx >= 0) {
+				return idx;
+			}
+			// try matches without extension
+			return index.indexOfBasename(fn);
+		}
         
 		// search for exact match (DocuDirent does compareTo<String>)
         // OBS: fileList needs to be sorted first (see )! <hertzhaft>
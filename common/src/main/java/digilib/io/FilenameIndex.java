@@ -0,0 +1,313 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Hash index of file names.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.List;
+
+import digilib.io.FileOps.FileClass;
+
+/**
+ * Index of a list of file names by name and by basename (name without
+ * extension).
+ *
+ * The index uses two open-addressing hash tables of int positions. Lookups
+ * don't create any objects. The names are not copied, the index refers to
+ * the String array or PackedNameList it was created with.
+ *
+ * Files with the same basename are found in the order of the list.
+ *
+ * @author agent
+ *
+ */
+public class FilenameIndex {
+
+    /** the names as Strings (or null) */
+    protected String[] strings = null;
+
+    /** the names as PackedNameList (or null) */
+    protected PackedNameList packed = null;
+
+    /** number of names */
+    protected int size;
+
+    /** hash table of index+1 by name (0 is empty) */
+    protected int[] nameTable;
+
+    /** hash table of index+1 by basename (0 is empty) */
+    protected int[] baseTable;
+
+    /**
+     * Creates an index of the names.
+     *
+     * @param names
+     */
+    public FilenameIndex(String[] names) {
+        this.strings = names;
+        this.size = names.length;
+        build();
+    }
+
+    /**
+     * Creates an index of the names.
+     *
+     * @param names
+     */
+    public FilenameIndex(PackedNameList names) {
+        this.packed = names;
+        this.size = names.size();
+        build();
+    }
+
+    /**
+     * Creates an index of the names of the files.
+     *
+     * @param files
+     */
+    public FilenameIndex(List<DocuDirent> files) {
+        int n = files.size();
+        String[] names = new String[n];
+        for (int i = 0; i < n; ++i) {
+            names[i] = files.get(i).getName();
+        }
+        this.strings = names;
+        this.size = n;
+        build();
+    }
+
+    /**
+     * Fills the hash tables.
+     */
+    protected void build() {
+        // load factor at most 2/3
+        int cap = 4;
+        while (cap < size + (size >> 1) + 1) {
+            cap <<= 1;
+        }
+        nameTable = new int[cap];
+        baseTable = new int[cap];
+        int mask = cap - 1;
+        for (int i = 0; i < size; ++i) {
+            int len = length(i);
+            int p = hash(i, len) & mask;
+            while (nameTable[p] != 0) {
+                p = (p + 1) & mask;
+            }
+            nameTable[p] = i + 1;
+            p = hash(i, baseLength(i)) & mask;
+            while (baseTable[p] != 0) {
+                p = (p + 1) & mask;
+            }
+            baseTable[p] = i + 1;
+        }
+    }
+
+    /**
+     * Returns the number of names.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the file with the name fn or -1.
+     *
+     * @param fn
+     * @return
+     */
+    public int indexOf(String fn) {
+        return find(nameTable, fn, fn.length(), false, null);
+    }
+
+    /**
+     * Returns the index of the first file whose basename is fn or the
+     * basename of fn or -1.
+     *
+     * @param fn
+     * @return
+     */
+    public int indexOfBasename(String fn) {
+        return indexOfBasename(fn, null);
+    }
+
+    /**
+     * Returns the index of the first file of class fc whose basename is fn or
+     * the basename of fn or -1.
+     *
+     * @param fn
+     * @param fc
+     *            file class (null for all)
+     * @return
+     */
+    public int indexOfBasename(String fn, FileClass fc) {
+        int len = fn.length();
+        int idx = find(baseTable, fn, len, true, fc);
+        if (idx < 0) {
+            int blen = baseLength(fn);
+            if (blen < len) {
+                idx = find(baseTable, fn, blen, true, fc);
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Returns the index of the file of class fc with the name fn or else of
+     * the first file of class fc with the same basename or -1.
+     *
+     * @param fn
+     * @param fc
+     *            file class (null for all)
+     * @return
+     */
+    public int findFile(String fn, FileClass fc) {
+        int idx = find(nameTable, fn, fn.length(), false, fc);
+        if (idx < 0) {
+            idx = indexOfBasename(fn, fc);
+        }
+        return idx;
+    }
+
+    /**
+     * Searches the table for the first name (or basename if base) that
+     * matches the first len characters of key and has the class fc.
+     *
+     * @param table
+     * @param key
+     * @param len
+     * @param base
+     * @param fc
+     * @return
+     */
+    protected int find(int[] table, String key, int len, boolean base, FileClass fc) {
+        int mask = table.length - 1;
+        int p = hash(key, len) & mask;
+        int best = -1;
+        int e;
+        while ((e = table[p]) != 0) {
+            int i = e - 1;
+            int nlen = base ? baseLength(i) : length(i);
+            // use the first match in list order
+            if (nlen == len && (best < 0 || i < best) && regionMatches(i, key, len)) {
+                if (fc == null || FileOps.classForFilename(getName(i)) == fc) {
+                    best = i;
+                }
+            }
+            p = (p + 1) & mask;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the name at index i.
+     *
+     * @param i
+     * @return
+     */
+    public String getName(int i) {
+        return (strings != null) ? strings[i] : packed.get(i);
+    }
+
+    protected int length(int i) {
+        return (strings != null) ? strings[i].length() : packed.length(i);
+    }
+
+    protected char charAt(int i, int k) {
+        return (strings != null) ? strings[i].charAt(k) : packed.charAt(i, k);
+    }
+
+    /**
+     * Returns the length of the basename of the name at index i.
+     *
+     * @param i
+     * @return
+     */
+    protected int baseLength(int i) {
+        if (strings != null) {
+            return baseLength(strings[i]);
+        }
+        for (int k = packed.length(i) - 1; k > 0; --k) {
+            if (packed.charAt(i, k) == '.') {
+                return k;
+            }
+        }
+        return packed.length(i);
+    }
+
+    /**
+     * Returns the length of the basename of fn (like FileOps.basename).
+     *
+     * @param fn
+     * @return
+     */
+    protected static int baseLength(String fn) {
+        int k = fn.lastIndexOf('.');
+        return (k > 0) ? k : fn.length();
+    }
+
+    /**
+     * Returns if the first len characters of the name at index i and key are
+     * the same.
+     *
+     * @param i
+     * @param key
+     * @param len
+     * @return
+     */
+    protected boolean regionMatches(int i, String key, int len) {
+        if (strings != null) {
+            return strings[i].regionMatches(0, key, 0, len);
+        }
+        for (int k = 0; k < len; ++k) {
+            if (packed.charAt(i, k) != key.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected int hash(int i, int len) {
+        int h = 0;
+        for (int k = 0; k < len; ++k) {
+            h = 31 * h + charAt(i, k);
+        }
+        return mix(h);
+    }
+
+    protected static int hash(String s, int len) {
+        int h = 0;
+        for (int k = 0; k < len; ++k) {
+            h = 31 * h + s.charAt(k);
+        }
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+}
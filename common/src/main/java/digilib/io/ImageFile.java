@@ -36,6 +36,7 @@ import javax.imageio.stream.ImageInputStream;
 
 import digilib.image.DocuImage;
 import digilib.image.DocuImageFactory;
+import digilib.image.ImageStageStats;
 import digilib.util.ImageSize;
 
 /**
@@ -81,10 +82,18 @@ public class ImageFile extends ImageInput {
 	 */
 	public void check() {
 	    if (pixelSize == null) {
+	        // try the index first
+	        if (ImageInfoIndex.lookup(this)) {
+	            return;
+	        }
 	        try {
 	            // use the configured toolkit to identify the image
                 DocuImage di = DocuImageFactory.getInstance();
-                di.identify(this);
+                long startTime = System.nanoTime();
+                if (di.identify(this) != null) {
+                    ImageStageStats.record(ImageStageStats.IDENTIFY, mimetype, di.getClass(), startTime);
+                    ImageInfoIndex.store(this);
+                }
             } catch (IOException e) {
                 // nothing much to do...
             }
@@ -118,6 +127,14 @@ public class ImageFile extends ImageInput {
         return (pixelSize != null) ? pixelSize.getAspect() : 0f;
     }
 
+    /** Returns the directory of the file.
+	 * 
+	 * @return
+	 */
+	public Directory getDirectory() {
+		return dir;
+	}
+
     /** Returns the file name (without path).
 	 * 
 	 * @return
@@ -182,6 +199,9 @@ public class ImageFile extends ImageInput {
     public String toString() {
         // try to use File.toString
         if (file != null) {
+            if (imageIndex > 0) {
+                return file.toString() + "[" + imageIndex + "]";
+            }
             return file.toString();
         }
         return super.toString();
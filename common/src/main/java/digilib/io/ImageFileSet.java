@@ -25,12 +25,13 @@ package digilib.io;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 
+import digilib.image.TiffPyramid;
 import digilib.io.FileOps.FileClass;
 import digilib.meta.FileMeta;
 import digilib.meta.MetaFactory;
 import digilib.meta.MetadataMap;
+import digilib.util.ImageSize;
 
 /**
  * @author casties
@@ -50,10 +51,17 @@ public class ImageFileSet extends ImageSet implements DocuDirent {
 	protected boolean metaChecked = false;
 	/** the parent directory */
 	protected Directory parentDir = null;
+	/** the directories with scaled images that have not been searched yet */
+	protected volatile Directory[] scaleDirs = null;
+	/** the file has been checked for pyramid levels */
+	protected volatile boolean levelsChecked = false;
     
     /**
      * Constructor with a File and Directories.
      * 
+     * Only the File is added to the ImageFileSet. The Directories are searched
+     * for scaled images when they are needed.
+     * 
      * @param file
      * @param scaleDirs
      */
@@ -65,7 +73,27 @@ public class ImageFileSet extends ImageSet implements DocuDirent {
         this.file = file;
         name = file.getName();
         meta = MetaFactory.getFileMetaInstance();
-        fill(scaleDirs, file);
+        // add the first ImageFile to the ImageSet
+        add(new ImageFile(file, this, parentDir));
+        if (nb > 1) {
+            this.scaleDirs = scaleDirs;
+        }
+    }
+
+    /**
+     * Constructor with a File and its Directory for an empty ImageFileSet.
+     * 
+     * ImageFiles have to be added with add().
+     * 
+     * @param file
+     * @param parentDir
+     */
+    public ImageFileSet(File file, Directory parentDir) {
+        list = new ArrayList<ImageInput>();
+        this.parentDir = parentDir;
+        this.file = file;
+        name = file.getName();
+        meta = MetaFactory.getFileMetaInstance();
     }
 
     /* (non-Javadoc)
@@ -114,22 +142,125 @@ public class ImageFileSet extends ImageSet implements DocuDirent {
         return file;
     }
 
+    /* (non-Javadoc)
+     * @see digilib.io.ImageSet#fillList()
+     */
+    @Override
+    protected void fillList() {
+        if (scaleDirs == null && levelsChecked) {
+            return;
+        }
+        synchronized (this) {
+            fillScaled();
+            if (!levelsChecked) {
+                addLevels();
+                levelsChecked = true;
+            }
+        }
+    }
+
+    /**
+     * Adds the scaled images from the parallel directories if they have not
+     * been added yet.
+     */
+    synchronized void fillScaled() {
+        Directory[] dirs = scaleDirs;
+        if (dirs != null) {
+            fill(dirs, file);
+            scaleDirs = null;
+        }
+    }
+
+    /**
+     * Adds the levels of a pyramidal TIFF file to the list at the positions of
+     * their sizes, keeping the list ordered from the biggest to the smallest
+     * image.
+     */
+    protected void addLevels() {
+        if (!TiffPyramid.isEnabled() || list.isEmpty()
+                || !TiffPyramid.MIME_TYPE.equals(FileOps.mimeForFile(file))) {
+            return;
+        }
+        ImageInput first = list.get(0);
+        ImageSize[] levels = TiffPyramid.getLevels(file);
+        if (levels == null) {
+            return;
+        }
+        // the levels are ordered from big to small
+        int pos = 1;
+        for (int i = 1; i < levels.length; ++i) {
+            ImageFile lf = new ImageFile(file, this, parentDir);
+            lf.setImageIndex(i);
+            lf.setMimetype(TiffPyramid.MIME_TYPE);
+            lf.setSize(levels[i]);
+            // insert before the first smaller (scaled) image
+            long pixels = getPixels(levels[i]);
+            while (pos < list.size()) {
+                ImageSize is = list.get(pos).getSize();
+                if (is != null && getPixels(is) < pixels) {
+                    break;
+                }
+                ++pos;
+            }
+            list.add(pos++, lf);
+        }
+        // also sets the aspect ratio of the set again
+        if (!first.hasMimetype()) {
+            first.setMimetype(TiffPyramid.MIME_TYPE);
+        }
+        first.setSize(levels[0]);
+    }
+
+    /**
+     * Returns the number of pixels of the image size is.
+     * 
+     * @param is
+     * @return
+     */
+    protected static long getPixels(ImageSize is) {
+        return (long) is.getWidth() * is.getHeight();
+    }
+
+    /**
+     * Returns if the scaled images have been added.
+     * 
+     * @return
+     */
+    public boolean isFilled() {
+        return (scaleDirs == null);
+    }
+
+    /**
+     * Returns if the file has been checked for pyramid levels.
+     * 
+     * @return
+     */
+    public boolean isLevelsChecked() {
+        return levelsChecked;
+    }
+
+    /**
+     * Sets if the file has been checked for pyramid levels.
+     * 
+     * @param checked
+     */
+    public void setLevelsChecked(boolean checked) {
+        this.levelsChecked = checked;
+    }
+
     /**
      * Fill the ImageSet with files from different base directories.
      * 
+     * The file from the first base directory has already been added.
      * 
      * @param dirs
      *            list of base directories
      * @param fl
      *            file (from first base dir)
-     * @param hints
      *  
      */
     void fill(Directory[] dirs, File fl) {
     	String fn = fl.getName();
-    	String baseFn = FileOps.basename(fn);
-    	// add the first ImageFile to the ImageSet
-    	add(new ImageFile(fl, this, parentDir));
     	// iterate the remaining base directories
     	for (int i = 1; i < dirs.length; ++i) {
     	    Directory dir = dirs[i];
@@ -140,39 +271,37 @@ public class ImageFileSet extends ImageSet implements DocuDirent {
     		if (dir.getFilenames() == null) {
     			dir.readDir();
     		}
-    		String[] dirFiles = dir.getFilenames();
-    		// try the same filename as the original
-    		int fileIdx = Arrays.binarySearch(dirFiles, fn);
-    		if (fileIdx < 0) {
-    			// try closest matches without extension
-    			fileIdx = -fileIdx - 1;
-    			// try idx
-    			if ((fileIdx < dirFiles.length)
-    					&& (FileOps.basename(dirFiles[fileIdx]).equals(baseFn))) {
-    				// idx ok
-    			} else if ((fileIdx > 0)
-    					&& (FileOps.basename(dirFiles[fileIdx - 1])
-    							.equals(baseFn))) {
-    				// idx-1 ok
-    				fileIdx = fileIdx - 1;
-    			} else if ((fileIdx+1 < dirFiles.length)
-    					&& (FileOps.basename(dirFiles[fileIdx + 1])
-    							.equals(baseFn))) {
-    				// idx+1 ok
-    				fileIdx = fileIdx + 1;
-    			} else {
-    				// basename doesn't match
-    				continue;
-    			}
-    		}
-    		if (FileOps.classForFilename(dirFiles[fileIdx]) == fileClass) {
-    			/* logger.debug("adding file " + dirFiles[fileIdx]
+    		String ifn = findFile(dir, fn);
+    		if (ifn != null) {
+    			/* logger.debug("adding file " + ifn
     					+ " to Fileset " + this.getName()); */
-    			add(new ImageFile(dirFiles[fileIdx], this, dir));
+    			add(new ImageFile(ifn, this, dir));
     		}
     	}
     }
 
+    /**
+     * Returns the name of the image file matching the filename fn in the
+     * directory dir. Returns null if there is none.
+     * 
+     * Files match if they have the same name or the same basename.
+     * 
+     * @param dir
+     * @param fn
+     * @return
+     */
+    public static String findFile(Directory dir, String fn) {
+    	FilenameIndex index = dir.getFilenameIndex();
+    	if (index == null) {
+    		return null;
+    	}
+    	int fileIdx = index.findFile(fn, fileClass);
+    	if (fileIdx < 0) {
+    		return null;
+    	}
+    	return index.getName(fileIdx);
+    }
+
     /**
      * Checks metadata and sets resolution in resX and resY.
      *  
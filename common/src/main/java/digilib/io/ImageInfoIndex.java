@@ -0,0 +1,498 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Persistent index of image sizes and types.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import digilib.util.HashUtils;
+import digilib.util.ImageSize;
+
+/**
+ * Persistent index of the size and mime-type of image files.
+ *
+ * There is one index per base directory. The index is kept in memory and in an
+ * append-only file in the index directory. Entries are only valid as long as
+ * modification time and length of the image file are unchanged.
+ *
+ * The index has to be set up with setup() before use.
+ *
+ * @author agent
+ *
+ */
+public class ImageInfoIndex {
+
+    protected static Logger logger = Logger.getLogger(ImageInfoIndex.class);
+
+    /** magic number at the start of the index file */
+    protected static final int FILE_MAGIC = 0x444c4949;
+
+    /** version of the index file format */
+    protected static final int FILE_VERSION = 1;
+
+    /** suffix of the index files */
+    protected static final String FILE_SUFFIX = ".idx";
+
+    /** directory for the index files (null means no index) */
+    protected static File indexDir = null;
+
+    /** absolute paths of the base directories */
+    protected static String[] baseDirs = new String[0];
+
+    /** indexes by base directory */
+    protected static Map<String, ImageInfoIndex> indexes = new HashMap<String, ImageInfoIndex>();
+
+    protected static AtomicInteger hits = new AtomicInteger(0);
+    protected static AtomicInteger misses = new AtomicInteger(0);
+
+    /**
+     * Size and type of one image file.
+     */
+    protected static class Entry {
+        public long mtime;
+        public long length;
+        public int width;
+        public int height;
+        public String mimetype;
+    }
+
+    /** base directory of this index */
+    protected String baseDir;
+
+    /** index file */
+    protected File indexFile;
+
+    /** entries by path relative to the base directory */
+    protected Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** number of records in the index file */
+    protected int numRecords = 0;
+
+    /** index file has been loaded */
+    protected boolean loaded = false;
+
+    /** output stream to the index file */
+    protected DataOutputStream out = null;
+
+    /**
+     * Sets up the indexes for the base directories in the index directory dir.
+     * If dir is null the index is not used.
+     *
+     * @param dir
+     * @param dirs
+     */
+    public static synchronized void setup(File dir, String[] dirs) {
+        closeAll();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            logger.error("Unable to create image index directory " + dir);
+            dir = null;
+        }
+        indexDir = dir;
+        if (dir == null || dirs == null) {
+            baseDirs = new String[0];
+            return;
+        }
+        baseDirs = new String[dirs.length];
+        for (int i = 0; i < dirs.length; ++i) {
+            baseDirs[i] = new File(dirs[i]).getAbsolutePath();
+        }
+        logger.info("Image index in " + dir);
+    }
+
+    /**
+     * Closes all index files.
+     */
+    public static synchronized void closeAll() {
+        for (ImageInfoIndex idx : indexes.values()) {
+            idx.close();
+        }
+        indexes.clear();
+    }
+
+    /**
+     * Returns the index for the image file f or null if there is none.
+     *
+     * @param f
+     * @return
+     */
+    protected static ImageInfoIndex getIndex(File f) {
+        ImageInfoIndex idx = findIndex(f);
+        if (idx != null) {
+            // load the index file outside the global lock
+            idx.ensureLoaded();
+        }
+        return idx;
+    }
+
+    /**
+     * Returns the (possibly not yet loaded) index for the image file f or null
+     * if there is none.
+     *
+     * @param f
+     * @return
+     */
+    protected static synchronized ImageInfoIndex findIndex(File f) {
+        if (indexDir == null) {
+            return null;
+        }
+        String fn = f.getAbsolutePath();
+        for (String bd : baseDirs) {
+            if (fn.startsWith(bd) && fn.length() > bd.length() && fn.charAt(bd.length()) == File.separatorChar) {
+                ImageInfoIndex idx = indexes.get(bd);
+                if (idx == null) {
+                    idx = new ImageInfoIndex(bd, new File(indexDir, HashUtils.sha1Hex(bd) + FILE_SUFFIX));
+                    indexes.put(bd, idx);
+                }
+                return idx;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets size and mime-type of the ImageInput from the index. Returns false
+     * if there is no valid entry.
+     *
+     * @param ii
+     * @return
+     */
+    public static boolean lookup(ImageInput ii) {
+        if (!ii.hasFile() || ii.getImageIndex() > 0) {
+            // only the first image of a file is indexed
+            return false;
+        }
+        File f = ii.getFile();
+        ImageInfoIndex idx = getIndex(f);
+        if (idx == null) {
+            return false;
+        }
+        Entry e = idx.get(idx.getKey(f));
+        if (e != null && e.mtime == f.lastModified() && e.length == f.length()) {
+            ii.setSize(new ImageSize(e.width, e.height));
+            ii.setMimetype(e.mimetype);
+            hits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores size and mime-type of the ImageInput in the index.
+     *
+     * @param ii
+     */
+    public static void store(ImageInput ii) {
+        if (!ii.hasFile() || ii.getImageIndex() > 0) {
+            // only the first image of a file is indexed
+            return;
+        }
+        File f = ii.getFile();
+        ImageInfoIndex idx = getIndex(f);
+        if (idx == null) {
+            return;
+        }
+        ImageSize is = ii.getSize();
+        String mt = ii.getMimetype();
+        if (is == null || mt == null) {
+            return;
+        }
+        Entry e = new Entry();
+        e.mtime = f.lastModified();
+        e.length = f.length();
+        e.width = is.getWidth();
+        e.height = is.getHeight();
+        e.mimetype = mt;
+        idx.put(idx.getKey(f), e);
+        // the file had to be identified
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Creates the index for the base directory baseDir in the file indexFile.
+     *
+     * @param baseDir
+     * @param indexFile
+     */
+    protected ImageInfoIndex(String baseDir, File indexFile) {
+        this.baseDir = baseDir;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index file if it has not been loaded yet.
+     */
+    protected synchronized void ensureLoaded() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+    }
+
+    /**
+     * Returns the key of the file f.
+     *
+     * @param f
+     * @return
+     */
+    protected String getKey(File f) {
+        return f.getAbsolutePath().substring(baseDir.length() + 1);
+    }
+
+    /**
+     * Returns the entry for key.
+     *
+     * @param key
+     * @return
+     */
+    protected synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Puts the entry for key in the index and appends it to the index file.
+     *
+     * @param key
+     * @param e
+     */
+    protected synchronized void put(String key, Entry e) {
+        // share mime-type strings
+        e.mimetype = e.mimetype.intern();
+        entries.put(key, e);
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+                if (numRecords == 0 && indexFile.length() == 0) {
+                    out.writeInt(FILE_MAGIC);
+                    out.writeInt(FILE_VERSION);
+                }
+            }
+            writeEntry(out, key, e);
+            out.flush();
+            ++numRecords;
+        } catch (IOException ex) {
+            logger.error("Error writing image index " + indexFile + ": " + ex);
+            close();
+        }
+    }
+
+    /**
+     * Writes the entry for key to the stream.
+     *
+     * @param os
+     * @param key
+     * @param e
+     * @throws IOException
+     */
+    protected static void writeEntry(DataOutputStream os, String key, Entry e) throws IOException {
+        os.writeUTF(key);
+        os.writeLong(e.mtime);
+        os.writeLong(e.length);
+        os.writeInt(e.width);
+        os.writeInt(e.height);
+        os.writeUTF(e.mimetype);
+    }
+
+    /**
+     * Reads the index file. Truncates an incomplete last record and rewrites
+     * the file if it contains too many outdated records.
+     */
+    protected synchronized void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        long len = indexFile.length();
+        byte[] data = new byte[(int) len];
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(indexFile);
+            int pos = 0;
+            while (pos < data.length) {
+                int n = fis.read(data, pos, data.length - pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+        } catch (IOException e) {
+            logger.error("Error reading image index " + indexFile + ": " + e);
+            return;
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        ByteArrayInputStream bis = new ByteArrayInputStream(data);
+        DataInputStream is = new DataInputStream(bis);
+        long validLength = 0;
+        try {
+            if (is.readInt() != FILE_MAGIC || is.readInt() != FILE_VERSION) {
+                logger.warn("Image index " + indexFile + " has wrong format. Ignoring it.");
+                indexFile.delete();
+                return;
+            }
+            validLength = data.length - bis.available();
+            while (bis.available() > 0) {
+                String key = is.readUTF();
+                Entry e = new Entry();
+                e.mtime = is.readLong();
+                e.length = is.readLong();
+                e.width = is.readInt();
+                e.height = is.readInt();
+                e.mimetype = is.readUTF().intern();
+                entries.put(key, e);
+                ++numRecords;
+                validLength = data.length - bis.available();
+            }
+        } catch (EOFException e) {
+            logger.warn("Image index " + indexFile + " has incomplete record. Truncating it.");
+            truncate(validLength);
+        } catch (IOException e) {
+            logger.error("Error reading image index " + indexFile + ": " + e);
+        }
+        logger.debug("Image index " + indexFile + " for " + baseDir + ": " + entries.size() + " entries");
+        if (numRecords > 2 * entries.size() + 1000) {
+            compact();
+        }
+    }
+
+    /**
+     * Truncates the index file to length.
+     *
+     * @param length
+     */
+    protected void truncate(long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(indexFile, "rw");
+            raf.setLength(length);
+        } catch (IOException e) {
+            logger.error("Error truncating image index " + indexFile + ": " + e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the index file with only the current entries.
+     */
+    protected synchronized void compact() {
+        close();
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            os.writeInt(FILE_MAGIC);
+            os.writeInt(FILE_VERSION);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writeEntry(os, e.getKey(), e.getValue());
+            }
+            os.close();
+            os = null;
+            if (!tmpFile.renameTo(indexFile)) {
+                // rename doesn't overwrite on some platforms
+                indexFile.delete();
+                if (!tmpFile.renameTo(indexFile)) {
+                    throw new IOException("unable to rename " + tmpFile);
+                }
+            }
+            numRecords = entries.size();
+            logger.debug("Compacted image index " + indexFile);
+        } catch (IOException e) {
+            logger.error("Error compacting image index " + indexFile + ": " + e);
+            tmpFile.delete();
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the index file.
+     */
+    protected synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Returns the number of entries in all indexes.
+     *
+     * @return
+     */
+    public static synchronized int size() {
+        int s = 0;
+        for (ImageInfoIndex idx : indexes.values()) {
+            synchronized (idx) {
+                s += idx.entries.size();
+            }
+        }
+        return s;
+    }
+
+    public static boolean isEnabled() {
+        return indexDir != null;
+    }
+
+    public static int getHits() {
+        return hits.get();
+    }
+
+    public static int getMisses() {
+        return misses.get();
+    }
+
+}
@@ -41,6 +41,8 @@ public abstract class ImageInput {
 	// image size in pixels
 	protected ImageSize pixelSize = null;
     protected ImageSet parent = null;
+	// index of the image in a multi-image file
+	protected int imageIndex = 0;
 
 	/**
 	 * @return ImageSize
@@ -97,6 +99,23 @@ public abstract class ImageInput {
 		return (pixelSize != null) ? pixelSize.getAspect() : 0f;
 	}
 	
+    /** Returns the index of the image in a multi-image file 
+     * (e.g. the level of a pyramidal TIFF).
+     * 
+     * @return
+     */
+    public int getImageIndex() {
+        return imageIndex;
+    }
+
+    /** Sets the index of the image in a multi-image file.
+     * 
+     * @param imageIndex
+     */
+    public void setImageIndex(int imageIndex) {
+        this.imageIndex = imageIndex;
+    }
+
     /**
      * @return ImageSet
      */
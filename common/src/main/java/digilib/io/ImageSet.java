@@ -68,6 +68,7 @@ public class ImageSet {
 	 * @return number of image files
 	 */
 	public int size() {
+		fillList();
 		return (list != null) ? list.size() : 0;
 	}
 
@@ -87,6 +88,9 @@ public class ImageSet {
 	 * @return
 	 */
 	public ImageInput get(int index) {
+		if (index >= list.size()) {
+			fillList();
+		}
 		return list.get(index);
 	}
 
@@ -160,6 +164,7 @@ public class ImageSet {
 	 * @return
 	 */
 	public ListIterator<ImageInput> getHiresIterator() {
+		fillList();
 		return list.listIterator();
 	}
 
@@ -174,6 +179,7 @@ public class ImageSet {
 	 * @return
 	 */
 	public ListIterator<ImageInput> getLoresIterator() {
+		fillList();
 		return list.listIterator(list.size());
 	}
 
@@ -214,6 +220,16 @@ public class ImageSet {
 		return aspect;
 	}
 
+    /**
+     * Adds the ImageInputs that have not been added yet.
+     * 
+     * Called before the list is used beyond the first ImageInput. Subclasses
+     * can use it to add lower resolutions on demand.
+     */
+    protected void fillList() {
+        // nothing to do
+    }
+
     public void checkMeta() {
         // TODO Auto-generated method stub
         
@@ -244,6 +260,8 @@ public class ImageSet {
      * @param imgs
      */
     public void append(ImageSet imgs) {
+        fillList();
+        imgs.fillList();
         // append list
         list.addAll(imgs.list);
         // change parents
@@ -0,0 +1,158 @@
+package digilib.io;
+
+/*
+ * #%L
+ * Compact list of file names.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Immutable list of names packed in a single char array.
+ *
+ * Uses one char array and one int array instead of one String object per
+ * name.
+ *
+ * @author agent
+ *
+ */
+public class PackedNameList {
+
+    /** the characters of all names */
+    protected char[] chars;
+
+    /** start of name i in chars is offsets[i], end is offsets[i+1] */
+    protected int[] offsets;
+
+    /**
+     * Creates a list of the names.
+     *
+     * @param names
+     */
+    public PackedNameList(String[] names) {
+        int n = names.length;
+        offsets = new int[n + 1];
+        int len = 0;
+        for (int i = 0; i < n; ++i) {
+            offsets[i] = len;
+            len += (names[i] != null) ? names[i].length() : 0;
+        }
+        offsets[n] = len;
+        chars = new char[len];
+        for (int i = 0; i < n; ++i) {
+            if (names[i] != null) {
+                names[i].getChars(0, names[i].length(), chars, offsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of names.
+     *
+     * @return
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the name at index i.
+     *
+     * @param i
+     * @return
+     */
+    public String get(int i) {
+        return new String(chars, offsets[i], offsets[i + 1] - offsets[i]);
+    }
+
+    /**
+     * Returns the length of the name at index i.
+     *
+     * @param i
+     * @return
+     */
+    public int length(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * Returns the character at position k of the name at index i.
+     *
+     * @param i
+     * @param k
+     * @return
+     */
+    public char charAt(int i, int k) {
+        return chars[offsets[i] + k];
+    }
+
+    /**
+     * Compares the name at index i with s like String.compareTo.
+     *
+     * @param i
+     * @param s
+     * @return
+     */
+    public int compareTo(int i, String s) {
+        int start = offsets[i];
+        int len = offsets[i + 1] - start;
+        int slen = s.length();
+        int n = Math.min(len, slen);
+        for (int k = 0; k < n; ++k) {
+            char c1 = chars[start + k];
+            char c2 = s.charAt(k);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return len - slen;
+    }
+
+    /**
+     * Searches the sorted list for s like Arrays.binarySearch.
+     *
+     * @param s
+     * @return index of s or (-(insertion point) - 1)
+     */
+    public int binarySearch(String s) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTo(mid, s);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the approximate memory size of this list in bytes.
+     *
+     * @return
+     */
+    public long getMemSize() {
+        return chars.length * 2L + offsets.length * 4L + 32;
+    }
+
+}
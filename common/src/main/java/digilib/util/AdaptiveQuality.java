@@ -0,0 +1,112 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Load-adaptive image quality.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lowers the image quality when the jobs of a DigilibJobCenter have to wait.
+ *
+ * The degradation level rises one step each time the average wait time of
+ * the job center exceeds the threshold of the next level. The thresholds are
+ * waitThreshold times 1, 2, 4 and 8. The level drops one step when the
+ * average wait time falls below half the threshold of the current level.
+ *
+ * @author agent
+ *
+ */
+public class AdaptiveQuality {
+
+    private static Logger logger = Logger.getLogger("digilib.jobcenter");
+
+    /** full requested quality */
+    public static final int FULL = 0;
+
+    /** no blur or resampling before scaling (quality 1) */
+    public static final int NO_PREPASS = 1;
+
+    /** bilinear instead of bicubic interpolation */
+    public static final int BILINEAR = 2;
+
+    /** subsampling without subsample-minimum */
+    public static final int MAX_SUBSAMPLE = 3;
+
+    /** nearest neighbor interpolation (quality 0) */
+    public static final int NEAREST = 4;
+
+    /** the job center to watch */
+    protected DigilibJobCenter<?> jobCenter;
+
+    /** average wait times for the levels above FULL (ms) */
+    protected long[] thresholds;
+
+    /** the current level */
+    protected int level = FULL;
+
+    /**
+     * Creates an AdaptiveQuality for the jobs of jobCenter.
+     *
+     * @param jobCenter
+     * @param waitThreshold
+     *            average wait time for the first level (ms)
+     */
+    public AdaptiveQuality(DigilibJobCenter<?> jobCenter, long waitThreshold) {
+        this.jobCenter = jobCenter;
+        this.thresholds = new long[NEAREST];
+        for (int i = 0; i < NEAREST; ++i) {
+            thresholds[i] = waitThreshold << i;
+        }
+    }
+
+    /**
+     * Returns the degradation level for a new job.
+     *
+     * @return
+     */
+    public synchronized int getLevel() {
+        double wait = jobCenter.getAverageWait();
+        int l = level;
+        while (l < thresholds.length && wait > thresholds[l]) {
+            ++l;
+        }
+        while (l > FULL && wait < thresholds[l - 1] / 2) {
+            --l;
+        }
+        if (l != level) {
+            logger.info("Image quality degradation level " + level + " -> " + l + " (average wait "
+                    + Math.round(wait) + "ms)");
+            level = l;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the current degradation level (without update).
+     *
+     * @return
+     */
+    public synchronized int getCurrentLevel() {
+        return level;
+    }
+
+}
@@ -0,0 +1,143 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Admission of image jobs by estimated memory.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Admits image jobs against a memory budget.
+ *
+ * Each job reserves its estimated peak memory from the budget before it is
+ * submitted and releases it when it is done. Jobs that don't fit into the
+ * remaining budget are rejected (and should be retried later). A job that is
+ * bigger than the whole budget is admitted when no other job is running.
+ *
+ * Memory is counted in KB.
+ *
+ * @author agent
+ *
+ */
+public class AdmissionController {
+
+    private static Logger logger = Logger.getLogger("digilib.jobcenter");
+
+    /** memory budget in KB */
+    protected int budget;
+
+    /** the free memory in KB */
+    protected Semaphore permits;
+
+    /** time after which a rejected request should be retried (s) */
+    protected int retryAfter;
+
+    /** number of rejected jobs */
+    protected AtomicInteger numRejected = new AtomicInteger(0);
+
+    /**
+     * Creates an AdmissionController with a budget of budgetBytes.
+     *
+     * @param budgetBytes
+     *            memory budget in bytes
+     * @param retryAfter
+     *            time after which a rejected request should be retried (s)
+     */
+    public AdmissionController(long budgetBytes, int retryAfter) {
+        this.budget = (int) Math.max(Math.min(budgetBytes / 1024, Integer.MAX_VALUE), 1);
+        this.permits = new Semaphore(budget);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Tries to reserve the estimated memory of a job. Returns the reservation
+     * that has to be passed to release() when the job is done or -1 if there
+     * is not enough memory.
+     *
+     * @param bytes
+     *            estimated memory of the job (-1 if unknown)
+     * @return
+     */
+    public int tryAdmit(long bytes) {
+        if (bytes <= 0) {
+            // nothing to reserve
+            return 0;
+        }
+        int kb = (int) Math.min((bytes + 1023) / 1024, budget);
+        if (permits.tryAcquire(kb)) {
+            return kb;
+        }
+        numRejected.incrementAndGet();
+        logger.debug("Rejected job with " + kb + "KB (free " + permits.availablePermits() + "KB)");
+        return -1;
+    }
+
+    /**
+     * Releases the reservation of a job.
+     *
+     * @param reservation
+     */
+    public void release(int reservation) {
+        if (reservation > 0) {
+            permits.release(reservation);
+        }
+    }
+
+    /**
+     * Returns the memory budget in bytes.
+     *
+     * @return
+     */
+    public long getBudget() {
+        return budget * 1024L;
+    }
+
+    /**
+     * Returns the free memory of the budget in bytes.
+     *
+     * @return
+     */
+    public long getFree() {
+        return permits.availablePermits() * 1024L;
+    }
+
+    /**
+     * Returns the time after which a rejected request should be retried (s).
+     *
+     * @return
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns the number of rejected jobs.
+     *
+     * @return
+     */
+    public int getRejectedJobs() {
+        return numRejected.get();
+    }
+
+}
@@ -23,61 +23,320 @@ package digilib.util;
  * Author: Robert Casties (robcast@berlios.de)
  */
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 /** Wrapper around ExecutionService.
+ * 
+ * Jobs are run in the order of their estimated cost. Cheap jobs (like 
+ * thumbnails) are run before expensive jobs that were submitted up to 
+ * agingTime earlier, so expensive jobs are delayed but not starved.
+ * 
+ * Jobs with a cost of at least heavyCost or an unknown cost are heavy jobs.
+ * If maxHeavyThreads is less than maxThreads heavy jobs use at most 
+ * maxHeavyThreads threads, the remaining threads are kept for light jobs, 
+ * and light and heavy jobs have separate queue limits in isBusy(cost).
+ * 
+ * In I/O mode (see setIoMode) many more jobs run at the same time, on 
+ * virtual threads if available, and only the CPU-bound parts of the jobs 
+ * (between acquireCpu and releaseCpu) are limited. 
  * 
  * @author casties
  *
  */
-public class DigilibJobCenter<V> {
+public class DigilibJobCenter<V> implements DigilibJobCenterMBean {
     /** general logger for this class */
     private static Logger logger = Logger.getLogger("digilib.jobcenter");
+    /** cost of jobs without estimate */
+    public static final double UNKNOWN_COST = -1;
     /** ExecutorService */
-    private ExecutorService executor;
+    private ThreadPoolExecutor executor;
     /** max number of running threads */
     private int maxThreads = 1;
     /** max number of waiting threads */
     private int maxQueueLen = 50;
+    /** max number of threads running heavy jobs */
+    private int maxHeavyThreads = 1;
+    /** min cost of heavy jobs */
+    private double heavyCost = 1;
+    /** max delay of a job because of its cost (ms) */
+    private long agingTime = 2000;
     /** label for this job center */
     private String label = "";
+    /** heavy jobs waiting for a heavy thread */
+    private PriorityQueue<LaneTask<?>> heavyQueue = new PriorityQueue<LaneTask<?>>();
+    /** number of heavy jobs given to the executor and not done */
+    private int numHeavyDispatched = 0;
+    /** number of waiting light jobs */
+    private AtomicInteger waitingLight = new AtomicInteger(0);
+    /** number of waiting heavy jobs */
+    private AtomicInteger waitingHeavy = new AtomicInteger(0);
+    /** number of running heavy jobs */
+    private AtomicInteger runningHeavy = new AtomicInteger(0);
+    /** sequence number of submitted jobs */
+    private AtomicLong sequence = new AtomicLong(0);
+    /** limits the CPU-bound parts of jobs in I/O mode (or null) */
+    private Semaphore cpuPermits = null;
+    /** max number of CPU-bound parts of jobs in I/O mode */
+    private int cpuThreads = 0;
+    /** jobs run on virtual threads */
+    private boolean virtualThreads = false;
+    /** weight of a new sample in the average wait time */
+    private static final double WAIT_WEIGHT = 0.2;
+    /** half-life of the average wait time without new samples (ms) */
+    private static final long WAIT_HALFLIFE = 2000;
+    /** moving average of the time jobs wait before they run (ms) */
+    private double avgWait = 0;
+    /** time of the last sample of the average wait time */
+    private long avgWaitTime = 0;
+    /** lock for the average wait time */
+    private final Object waitLock = new Object();
+
+    /** Job with priority and lane.
+     */
+    protected class LaneTask<T> extends FutureTask<T> implements Comparable<LaneTask<?>> {
+        /** time when the job was submitted (ms) */
+        protected long submitTime;
+        /** time when the job should run (ms) */
+        protected long key;
+        /** sequence number */
+        protected long seq;
+        /** job is in the heavy lane */
+        protected boolean heavy;
+        /** job has been given to the executor */
+        protected boolean dispatched = false;
+        /** job has not been started or cancelled */
+        protected AtomicBoolean waiting = new AtomicBoolean(true);
+
+        public LaneTask(Callable<T> job, double cost) {
+            super(job);
+            setCost(cost);
+        }
+
+        public LaneTask(Runnable job, double cost) {
+            super(job, null);
+            setCost(cost);
+        }
+
+        protected void setCost(double cost) {
+            heavy = isHeavy(cost);
+            seq = sequence.incrementAndGet();
+            submitTime = System.currentTimeMillis();
+            key = submitTime + getDelay(cost);
+            if (heavy) {
+                waitingHeavy.incrementAndGet();
+            } else {
+                waitingLight.incrementAndGet();
+            }
+        }
+
+        /** Counts the job as not waiting.
+         */
+        protected void stopWaiting() {
+            if (waiting.compareAndSet(true, false)) {
+                if (heavy) {
+                    waitingHeavy.decrementAndGet();
+                } else {
+                    waitingLight.decrementAndGet();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            if (waiting.get()) {
+                recordWait(System.currentTimeMillis() - submitTime);
+            }
+            stopWaiting();
+            if (heavy) {
+                runningHeavy.incrementAndGet();
+                try {
+                    super.run();
+                } finally {
+                    runningHeavy.decrementAndGet();
+                }
+            } else {
+                super.run();
+            }
+        }
+
+        @Override
+        protected void done() {
+            stopWaiting();
+            if (heavy) {
+                heavyDone(this);
+            }
+        }
+
+        @Override
+        public int compareTo(LaneTask<?> other) {
+            if (key != other.key) {
+                return (key < other.key) ? -1 : 1;
+            }
+            return (seq < other.seq) ? -1 : ((seq == other.seq) ? 0 : 1);
+        }
+    }
     
     /** Create a DigilibJobcenter with the given number of threads and queue length.
      * If prestart=true it starts the threads in the thread pool.
      * 
+     * All threads can run heavy jobs.
+     * 
      * @param maxThreads
      * @param maxQueueLen
      * @param prestart
      * @param label
      */
     public DigilibJobCenter(int maxThreads, int maxQueueLen, boolean prestart, String label) {
+        this(maxThreads, maxQueueLen, prestart, label, maxThreads, 1, 2000);
+    }
+
+    /** Create a DigilibJobcenter with the given number of threads and queue length
+     * and a limit for threads running heavy jobs.
+     * If prestart=true it starts the threads in the thread pool.
+     * 
+     * @param maxThreads
+     * @param maxQueueLen
+     * @param prestart
+     * @param label
+     * @param maxHeavyThreads max number of threads running heavy jobs
+     * @param heavyCost min cost of heavy jobs
+     * @param agingTime max delay of a job because of its cost (ms)
+     */
+    public DigilibJobCenter(int maxThreads, int maxQueueLen, boolean prestart, String label,
+            int maxHeavyThreads, double heavyCost, long agingTime) {
         super();
         this.label = (label != null) ? label : "";
         this.maxThreads = maxThreads;
         this.maxQueueLen = maxQueueLen;
-        executor = Executors.newFixedThreadPool(maxThreads);
+        this.maxHeavyThreads = Math.max(Math.min(maxHeavyThreads, maxThreads), 1);
+        this.heavyCost = heavyCost;
+        this.agingTime = agingTime;
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), Executors.defaultThreadFactory());
         if (prestart) {
             // prestart threads so Tomcat's leak protection doesn't complain
-            int st = ((ThreadPoolExecutor)executor).prestartAllCoreThreads();
+            int st = executor.prestartAllCoreThreads();
             logger.debug(label+" prestarting threads: "+st);
         }
     }
     
+    /** Switches to I/O mode: runs up to maxIoThreads jobs at the same time
+     * and limits the CPU-bound parts of the jobs (see acquireCpu) to cpuThreads.
+     * 
+     * The threads and queue limit of the heavy lane keep their share of all 
+     * threads. 
+     * Uses virtual threads if useVirtualThreads is set and the Java runtime has
+     * them (Java 21), otherwise platform threads that are stopped when idle.
+     * Should be called before submitting jobs.
+     * 
+     * @param maxIoThreads
+     * @param cpuThreads
+     * @param useVirtualThreads
+     */
+    public void setIoMode(int maxIoThreads, int cpuThreads, boolean useVirtualThreads) {
+        if (useVirtualThreads) {
+            ThreadFactory tf = getVirtualThreadFactory(label);
+            if (tf != null) {
+                executor.setThreadFactory(tf);
+                virtualThreads = true;
+            } else {
+                logger.warn(label+" virtual threads not available, using platform threads.");
+            }
+        }
+        this.cpuThreads = Math.max(cpuThreads, 1);
+        cpuPermits = new Semaphore(this.cpuThreads);
+        int n = Math.max(maxIoThreads, maxThreads);
+        synchronized (this) {
+            // the CPU permits limit the computation, not the heavy lane
+            maxHeavyThreads = Math.max((int) ((long) maxHeavyThreads * n / maxThreads), 1);
+            maxThreads = n;
+        }
+        executor.setMaximumPoolSize(n);
+        executor.setCorePoolSize(n);
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        logger.info(label+" using up to "+n+(virtualThreads ? " virtual" : "")+" threads for "+this.cpuThreads+" CPUs");
+    }
+
+    /** Returns a ThreadFactory for virtual threads or null if the Java runtime
+     * doesn't have virtual threads.
+     * 
+     * @param label
+     * @return
+     */
+    protected static ThreadFactory getVirtualThreadFactory(String label) {
+        try {
+            // Thread.ofVirtual().name(label, 1).factory() (Java 21)
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, label+"-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            logger.debug("No virtual threads: "+e);
+        }
+        return null;
+    }
+
+    /** Waits until the CPU-bound part of a job may run in I/O mode.
+     * Every call has to be followed by releaseCpu().
+     * 
+     * @throws InterruptedException
+     */
+    public void acquireCpu() throws InterruptedException {
+        if (cpuPermits != null) {
+            if (!cpuPermits.tryAcquire()) {
+                // waiting for the CPU counts as waiting time
+                long start = System.currentTimeMillis();
+                cpuPermits.acquire();
+                recordWait(System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /** Ends the CPU-bound part of a job in I/O mode.
+     */
+    public void releaseCpu() {
+        if (cpuPermits != null) {
+            cpuPermits.release();
+        }
+    }
+
     /** Submit Callable job that returns a Value to execute.
      * 
      * @param job
      * @return Future to control the job
      */
     public Future<V> submit(Callable<V> job) {
-        return executor.submit(job);
+        return submit(job, UNKNOWN_COST);
+    }
+
+    /** Submit Callable job with estimated cost that returns a Value to execute.
+     * 
+     * @param job
+     * @param cost estimated cost (or UNKNOWN_COST)
+     * @return Future to control the job
+     */
+    public Future<V> submit(Callable<V> job, double cost) {
+        LaneTask<V> task = new LaneTask<V>(job, cost);
+        dispatch(task);
+        return task;
     }
 
     /** Submit Runnable job to execute.
@@ -86,7 +345,134 @@ public class DigilibJobCenter<V> {
      * @return Future to control the job
      */
     public Future<?> submit(Runnable job) {
-        return executor.submit(job);
+        return submit(job, UNKNOWN_COST);
+    }
+
+    /** Submit Runnable job with estimated cost to execute.
+     * 
+     * @param job
+     * @param cost estimated cost (or UNKNOWN_COST)
+     * @return Future to control the job
+     */
+    public Future<?> submit(Runnable job, double cost) {
+        LaneTask<Object> task = new LaneTask<Object>(job, cost);
+        dispatch(task);
+        return task;
+    }
+
+    /** Gives the job to the executor or puts it in the heavy queue.
+     * 
+     * @param task
+     */
+    protected void dispatch(LaneTask<?> task) {
+        if (task.heavy) {
+            synchronized (this) {
+                if (numHeavyDispatched >= maxHeavyThreads) {
+                    // wait for a heavy job to finish
+                    heavyQueue.add(task);
+                    return;
+                }
+                numHeavyDispatched++;
+                task.dispatched = true;
+            }
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            throw e;
+        }
+    }
+
+    /** Called when a heavy job is done. Dispatches the next heavy job.
+     * 
+     * @param task
+     */
+    protected void heavyDone(LaneTask<?> task) {
+        LaneTask<?> next = null;
+        synchronized (this) {
+            if (!task.dispatched) {
+                // cancelled while waiting
+                heavyQueue.remove(task);
+                return;
+            }
+            numHeavyDispatched--;
+            while ((next = heavyQueue.poll()) != null && next.isDone()) {
+                // skip cancelled jobs
+            }
+            if (next != null) {
+                numHeavyDispatched++;
+                next.dispatched = true;
+            }
+        }
+        if (next != null) {
+            try {
+                executor.execute(next);
+            } catch (RejectedExecutionException e) {
+                // we are shut down
+                next.cancel(false);
+            }
+        }
+    }
+
+    /** Adds the wait time of a job to the average wait time.
+     * 
+     * @param wait
+     */
+    protected void recordWait(long wait) {
+        synchronized (waitLock) {
+            avgWait = getDecayedWait(System.currentTimeMillis());
+            avgWait += WAIT_WEIGHT * (wait - avgWait);
+            avgWaitTime = System.currentTimeMillis();
+        }
+    }
+
+    /** Returns the average wait time at time now. The average decays while
+     * no jobs are submitted.
+     * 
+     * @param now
+     * @return
+     */
+    private double getDecayedWait(long now) {
+        long dt = now - avgWaitTime;
+        if (dt <= 0) {
+            return avgWait;
+        }
+        return avgWait * Math.pow(0.5, (double) dt / WAIT_HALFLIFE);
+    }
+
+    /** Returns the moving average of the time jobs waited before they ran (ms).
+     * In I/O mode this includes the time waiting for the CPU.
+     * 
+     * @return
+     */
+    public double getAverageWait() {
+        synchronized (waitLock) {
+            return getDecayedWait(System.currentTimeMillis());
+        }
+    }
+
+    /** Returns if a job with the given cost is heavy.
+     * 
+     * @param cost
+     * @return
+     */
+    public boolean isHeavy(double cost) {
+        return (cost < 0 || cost >= heavyCost);
+    }
+
+    /** Returns the delay of a job with the given cost (ms).
+     * 
+     * The delay grows with the cost up to agingTime.
+     * 
+     * @param cost
+     * @return
+     */
+    protected long getDelay(double cost) {
+        if (cost < 0) {
+            return agingTime;
+        }
+        return (long) (agingTime * cost / (cost + heavyCost));
     }
 
     /** Returns if the service is overloaded.
@@ -100,20 +486,82 @@ public class DigilibJobCenter<V> {
         return (jql > maxQueueLen);
     }
     
+    /** Returns if the lane for a job with the given cost is overloaded.
+     * 
+     * Heavy jobs can use a part of the queue proportional to their threads.
+     * Without a heavy lane all jobs share the queue (like isBusy()).
+     *  
+     * @param cost estimated cost (or UNKNOWN_COST)
+     * @return
+     */
+    public boolean isBusy(double cost) {
+        if (!hasHeavyLane()) {
+            return isBusy();
+        }
+        int wl = waitingLight.get();
+        int wh = waitingHeavy.get();
+        logger.debug(label+" isBusy: waiting light jobs="+wl+" waiting heavy jobs="+wh+" running jobs="+getRunningJobs());
+        if (isHeavy(cost)) {
+            return (wh > getMaxHeavyQueueLen());
+        }
+        return (wl > maxQueueLen);
+    }
+    
     /** Returns the number of currently running jobs.
      * @return
      */
     public int getRunningJobs() {
-        return ((ThreadPoolExecutor)executor).getActiveCount();
+        return executor.getActiveCount();
     }
     
     /** Returns the number of currently waiting jobs.
      * @return
      */
     public int getWaitingJobs() {
-        BlockingQueue<Runnable> jq = ((ThreadPoolExecutor)executor).getQueue();
-        int jql = jq.size();
-        return jql;
+        return waitingLight.get() + waitingHeavy.get();
+    }
+
+    /** Returns the number of currently running heavy jobs.
+     * @return
+     */
+    public int getRunningHeavyJobs() {
+        return runningHeavy.get();
+    }
+    
+    /** Returns the number of currently waiting light jobs.
+     * @return
+     */
+    public int getWaitingLightJobs() {
+        return waitingLight.get();
+    }
+
+    /** Returns the number of currently waiting heavy jobs.
+     * @return
+     */
+    public int getWaitingHeavyJobs() {
+        return waitingHeavy.get();
+    }
+
+    /** Returns the number of jobs waiting to run their CPU-bound part in I/O mode.
+     * @return
+     */
+    public int getWaitingCpuJobs() {
+        return (cpuPermits != null) ? cpuPermits.getQueueLength() : 0;
+    }
+
+    /** Returns if the job center is in I/O mode.
+     * @return
+     */
+    public boolean isIoMode() {
+        return cpuPermits != null;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getCpuThreads() {
+        return cpuThreads;
     }
 
     public void setMaxThreads(int maxThreads) {
@@ -132,13 +580,41 @@ public class DigilibJobCenter<V> {
         return maxQueueLen;
     }
 
+    public int getMaxHeavyThreads() {
+        return maxHeavyThreads;
+    }
+
+    /** Returns if threads are kept for light jobs.
+     * @return
+     */
+    public boolean hasHeavyLane() {
+        return maxHeavyThreads < maxThreads;
+    }
+
+    public int getMaxHeavyQueueLen() {
+        return Math.max(maxQueueLen * maxHeavyThreads / Math.max(maxThreads, 1), 1);
+    }
+
+    public double getHeavyCost() {
+        return heavyCost;
+    }
+
+    public long getAgingTime() {
+        return agingTime;
+    }
+
     /** Shuts down the Executor. 
      * Tries to stop running threads and returns a list of waiting threads.
      * 
      * @return
      */
     public List<Runnable> shutdownNow() {
-        return executor.shutdownNow();
+        List<Runnable> waiting = new ArrayList<Runnable>(executor.shutdownNow());
+        synchronized (this) {
+            waiting.addAll(heavyQueue);
+            heavyQueue.clear();
+        }
+        return waiting;
     }
 
 }
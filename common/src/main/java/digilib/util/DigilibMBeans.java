@@ -0,0 +1,119 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Registration of digilib MBeans.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registers digilib MBeans with the platform MBeanServer under the domain
+ * "digilib".
+ *
+ * Registration is off until setEnabled(true) is called. All registered
+ * MBeans are removed by unregisterAll().
+ *
+ * @author agent
+ *
+ */
+public class DigilibMBeans {
+
+    private static Logger logger = Logger.getLogger(DigilibMBeans.class);
+
+    /** the JMX domain */
+    public static final String DOMAIN = "digilib";
+
+    /** register MBeans */
+    protected static volatile boolean enabled = false;
+
+    /** names of the registered MBeans */
+    protected static List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        DigilibMBeans.enabled = enabled;
+    }
+
+    /**
+     * Registers mbean with interface intf under "digilib:type=type,props". The
+     * values in props must not contain ",", "=", ":", quotes or wildcards.
+     *
+     * @param mbean
+     * @param intf
+     * @param type
+     * @param props
+     *            additional "key=value" properties (may be null)
+     */
+    public static <T> void register(T mbean, Class<T> intf, String type, String props) {
+        if (!enabled) {
+            return;
+        }
+        String name = DOMAIN + ":type=" + type;
+        if (props != null) {
+            name += "," + props;
+        }
+        try {
+            ObjectName on = new ObjectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (registered) {
+                if (server.isRegistered(on)) {
+                    // left over from a previous webapp
+                    server.unregisterMBean(on);
+                }
+                server.registerMBean(new StandardMBean(mbean, intf), on);
+                registered.add(on);
+            }
+            logger.debug("Registered MBean " + on);
+        } catch (JMException e) {
+            logger.warn("Unable to register MBean " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Unregisters all MBeans registered by register().
+     */
+    public static void unregisterAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (ObjectName on : registered) {
+                try {
+                    server.unregisterMBean(on);
+                } catch (JMException e) {
+                    logger.debug("Unable to unregister MBean " + on + ": " + e);
+                }
+            }
+            registered.clear();
+        }
+    }
+
+}
@@ -0,0 +1,483 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Two-tier cache for encoded result images.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache for encoded result images (the bytes sent to the client).
+ *
+ * The first tier is an in-memory LRU map bounded by the total number of bytes.
+ * The optional second tier stores the images as files in a directory, the file
+ * name is derived from a hash of the key. Entries evicted from memory stay on
+ * disk and are moved back into memory on the next hit. Files are written and
+ * the disk tier is trimmed in a background thread so that put() doesn't wait
+ * for the disk.
+ *
+ * @author agent
+ *
+ */
+public class ImageResultCache {
+
+    protected static Logger logger = Logger.getLogger("digilib.imagecache");
+
+    /** in-memory LRU map (access order) */
+    protected LinkedHashMap<String, byte[]> memCache;
+
+    /** max number of bytes in memory */
+    protected long maxMemSize;
+
+    /** current number of bytes in memory */
+    protected long memSize = 0;
+
+    /** directory for the disk tier (may be null) */
+    protected File cacheDir = null;
+
+    /** max number of bytes on disk */
+    protected long maxDiskSize;
+
+    /** (approximate) current number of bytes on disk */
+    protected AtomicLong diskSize = new AtomicLong(0);
+
+    /** sizes of the files in the disk tier by file name (access order) */
+    protected LinkedHashMap<String, Long> diskFiles = new LinkedHashMap<String, Long>(256, 0.75f, true);
+
+    /** writes files and trims the disk tier */
+    protected ThreadPoolExecutor diskWriter = null;
+
+    /** max number of files waiting to be written */
+    protected static final int MAX_PENDING_WRITES = 100;
+
+    /** number of memory hits */
+    protected AtomicInteger memHits = new AtomicInteger(0);
+
+    /** number of disk hits */
+    protected AtomicInteger diskHits = new AtomicInteger(0);
+
+    /** number of misses */
+    protected AtomicInteger misses = new AtomicInteger(0);
+
+    /** suffix of files in the disk tier */
+    protected static final String FILE_SUFFIX = ".img";
+
+    /**
+     * Creates a cache with maxMemSize bytes in memory and maxDiskSize bytes in
+     * the directory cacheDir. If cacheDir is null there is no disk tier.
+     *
+     * @param maxMemSize
+     * @param cacheDir
+     * @param maxDiskSize
+     */
+    public ImageResultCache(long maxMemSize, File cacheDir, long maxDiskSize) {
+        this.maxMemSize = maxMemSize;
+        this.maxDiskSize = maxDiskSize;
+        this.memCache = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+        if (cacheDir != null) {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                logger.error("Unable to create image cache directory " + cacheDir + "! Disk cache disabled.");
+            } else if (!cacheDir.canWrite()) {
+                logger.error("Image cache directory " + cacheDir + " not writeable! Disk cache disabled.");
+            } else {
+                this.cacheDir = cacheDir;
+                diskSize.set(scanDisk());
+                logger.info("Image cache directory " + cacheDir + " contains " + diskSize.get() + " bytes.");
+                // one daemon thread, drops writes if the disk can't keep up
+                diskWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(MAX_PENDING_WRITES), new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "digilib-imagecache-writer");
+                                t.setDaemon(true);
+                                t.setPriority(Thread.MIN_PRIORITY);
+                                return t;
+                            }
+                        }, new ThreadPoolExecutor.DiscardPolicy());
+            }
+        }
+    }
+
+    /**
+     * Returns the cached image data for key or null.
+     *
+     * @param key
+     * @return
+     */
+    public byte[] get(String key) {
+        if (key == null) {
+            return null;
+        }
+        byte[] data;
+        synchronized (memCache) {
+            data = memCache.get(key);
+        }
+        if (data != null) {
+            memHits.incrementAndGet();
+            return data;
+        }
+        if (cacheDir != null) {
+            File f = getCacheFile(key);
+            data = readFile(f);
+            if (data != null) {
+                diskHits.incrementAndGet();
+                synchronized (diskFiles) {
+                    // mark as recently used
+                    diskFiles.get(f.getName());
+                }
+                // move back into memory
+                putMem(key, data);
+                return data;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the image data under key.
+     *
+     * The data is stored in memory at once and written to disk in the
+     * background.
+     *
+     * @param key
+     * @param data
+     */
+    public void put(String key, final byte[] data) {
+        if (key == null || data == null) {
+            return;
+        }
+        putMem(key, data);
+        if (diskWriter != null) {
+            final File f = getCacheFile(key);
+            diskWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    putDisk(f, data);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the image data to the file f in the disk tier and trims the disk
+     * tier if it is too big.
+     *
+     * @param f
+     * @param data
+     */
+    protected void putDisk(File f, byte[] data) {
+        synchronized (diskFiles) {
+            if (diskFiles.containsKey(f.getName())) {
+                return;
+            }
+        }
+        if (writeFile(f, data)) {
+            synchronized (diskFiles) {
+                diskFiles.put(f.getName(), (long) data.length);
+            }
+            if (diskSize.addAndGet(data.length) > maxDiskSize) {
+                trimDisk();
+            }
+        }
+    }
+
+    /**
+     * Stores the image data in the memory tier and evicts the least recently
+     * used entries.
+     *
+     * @param key
+     * @param data
+     */
+    protected void putMem(String key, byte[] data) {
+        // don't let single images flush the whole cache
+        if (data.length > maxMemSize / 8) {
+            return;
+        }
+        synchronized (memCache) {
+            byte[] old = memCache.put(key, data);
+            if (old != null) {
+                memSize -= old.length;
+            }
+            memSize += data.length;
+            Iterator<byte[]> it = memCache.values().iterator();
+            while (memSize > maxMemSize && it.hasNext()) {
+                memSize -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the file for key in the disk tier.
+     *
+     * Uses the SHA-1 hash of the key and one level of subdirectories.
+     *
+     * @param key
+     * @return
+     */
+    protected File getCacheFile(String key) {
+        String hash = HashUtils.sha1Hex(key);
+        File dir = new File(cacheDir, hash.substring(0, 2));
+        return new File(dir, hash + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the contents of file f. Returns null if the file doesn't exist or
+     * can't be read.
+     *
+     * @param f
+     * @return
+     */
+    protected byte[] readFile(File f) {
+        long len = f.length();
+        if (len == 0 || len > Integer.MAX_VALUE) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            byte[] data = new byte[(int) len];
+            int pos = 0;
+            while (pos < data.length) {
+                int n = in.read(data, pos, data.length - pos);
+                if (n < 0) {
+                    // file was truncated
+                    return null;
+                }
+                pos += n;
+            }
+            return data;
+        } catch (IOException e) {
+            logger.debug("Unable to read cache file " + f + ": " + e.getMessage());
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes data to file f. Writes to a temporary file first so that other
+     * threads never see half-written files.
+     *
+     * @param f
+     * @param data
+     * @return
+     */
+    protected boolean writeFile(File f, byte[] data) {
+        File dir = f.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            logger.error("Unable to create cache directory " + dir);
+            return false;
+        }
+        File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.close();
+            out = null;
+            if (tmp.renameTo(f)) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write cache file " + f + ": " + e.getMessage());
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        tmp.delete();
+        return false;
+    }
+
+    /**
+     * Returns the list of all files in the disk tier.
+     *
+     * @return
+     */
+    protected List<File> listDiskFiles() {
+        List<File> files = new ArrayList<File>();
+        File[] dirs = cacheDir.listFiles();
+        if (dirs == null) {
+            return files;
+        }
+        for (File d : dirs) {
+            File[] fl = d.listFiles();
+            if (fl == null) {
+                continue;
+            }
+            for (File f : fl) {
+                if (f.getName().endsWith(FILE_SUFFIX)) {
+                    files.add(f);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Records the sizes of the files in the disk tier (oldest first) and
+     * returns their total size.
+     *
+     * @return
+     */
+    protected long scanDisk() {
+        List<File> fl = listDiskFiles();
+        File[] files = fl.toArray(new File[fl.size()]);
+        // sort oldest first (cache lastModified values for sorting)
+        final Map<File, Long> mtimeMap = new HashMap<File, Long>(files.length * 2);
+        for (File f : files) {
+            mtimeMap.put(f, f.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = mtimeMap.get(f1);
+                long m2 = mtimeMap.get(f2);
+                return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+            }
+        });
+        long size = 0;
+        synchronized (diskFiles) {
+            for (File f : files) {
+                long len = f.length();
+                diskFiles.put(f.getName(), len);
+                size += len;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes the least recently used files from the disk tier until it is
+     * below 90% of its maximum size.
+     */
+    protected void trimDisk() {
+        long target = maxDiskSize / 10 * 9;
+        List<String> names = new ArrayList<String>();
+        long size = diskSize.get();
+        synchronized (diskFiles) {
+            Iterator<Map.Entry<String, Long>> it = diskFiles.entrySet().iterator();
+            while (size > target && it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                names.add(e.getKey());
+                size -= e.getValue();
+                it.remove();
+            }
+        }
+        int deleted = 0;
+        long removed = 0;
+        for (String fn : names) {
+            // the subdirectory is the start of the name
+            File f = new File(new File(cacheDir, fn.substring(0, 2)), fn);
+            long len = f.length();
+            if (f.delete()) {
+                ++deleted;
+            }
+            removed += len;
+        }
+        size = diskSize.addAndGet(-removed);
+        logger.debug("Image cache disk trimmed: removed " + deleted + " files, " + size + " bytes left.");
+    }
+
+    /**
+     * Returns the number of images in memory.
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (memCache) {
+            return memCache.size();
+        }
+    }
+
+    /**
+     * Returns the number of bytes in memory.
+     *
+     * @return
+     */
+    public long getMemSize() {
+        synchronized (memCache) {
+            return memSize;
+        }
+    }
+
+    /**
+     * Returns the (approximate) number of bytes on disk.
+     *
+     * @return
+     */
+    public long getDiskSize() {
+        return diskSize.get();
+    }
+
+    /**
+     * @return the number of memory hits
+     */
+    public int getMemHits() {
+        return memHits.get();
+    }
+
+    /**
+     * @return the number of disk hits
+     */
+    public int getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of misses
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+}
@@ -0,0 +1,202 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Coalescing of identical concurrent jobs.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Coalesces identical jobs that run at the same time.
+ *
+ * The first caller of join() for a key becomes the leader and has to run the
+ * job and call complete() or fail() when it is done. Callers of join() for the
+ * same key while the job is running are attached as listeners and get the
+ * result of the leader's job.
+ *
+ * @author agent
+ *
+ * @param <V>
+ *            type of the job result
+ */
+public class JobCoalescer<V> {
+
+    /**
+     * Listener that receives the result of a job it was attached to.
+     */
+    public interface JobListener<V> {
+        /**
+         * The job finished with result.
+         *
+         * @param result
+         */
+        public void jobDone(V result);
+
+        /**
+         * The job failed with exception e.
+         *
+         * @param e
+         */
+        public void jobFailed(Exception e);
+    }
+
+    private static Logger logger = Logger.getLogger("digilib.jobcenter");
+
+    /** listeners of running jobs by key */
+    protected ConcurrentMap<String, List<JobListener<V>>> running = new ConcurrentHashMap<String, List<JobListener<V>>>();
+
+    /** number of jobs that were attached to a running job */
+    protected AtomicInteger numCoalesced = new AtomicInteger(0);
+
+    /**
+     * Join the job with key.
+     *
+     * Returns true if there was no running job and the caller has to run the
+     * job. Returns false if there was a running job and listener was attached
+     * to it.
+     *
+     * @param key
+     * @param listener
+     * @return
+     */
+    public boolean join(String key, JobListener<V> listener) {
+        List<JobListener<V>> newListeners = new ArrayList<JobListener<V>>(2);
+        while (true) {
+            List<JobListener<V>> listeners = running.putIfAbsent(key, newListeners);
+            if (listeners == null) {
+                // we are the leader
+                return true;
+            }
+            synchronized (listeners) {
+                if (running.get(key) == listeners) {
+                    // job is still running
+                    listeners.add(listener);
+                    numCoalesced.incrementAndGet();
+                    logger.debug("attached to running job " + key);
+                    return false;
+                }
+            }
+            // job finished in the meantime -- try again
+        }
+    }
+
+    /**
+     * Returns if a job with key is running.
+     *
+     * @param key
+     * @return
+     */
+    public boolean isRunning(String key) {
+        return running.containsKey(key);
+    }
+
+    /**
+     * Returns the number of listeners attached to the running job with key.
+     *
+     * @param key
+     * @return
+     */
+    public int getListenerCount(String key) {
+        List<JobListener<V>> listeners = running.get(key);
+        if (listeners == null) {
+            return 0;
+        }
+        synchronized (listeners) {
+            return listeners.size();
+        }
+    }
+
+    /**
+     * Removes the job with key and returns its listeners.
+     *
+     * @param key
+     * @return
+     */
+    protected List<JobListener<V>> finish(String key) {
+        List<JobListener<V>> listeners = running.remove(key);
+        if (listeners == null) {
+            return Collections.emptyList();
+        }
+        synchronized (listeners) {
+            return new ArrayList<JobListener<V>>(listeners);
+        }
+    }
+
+    /**
+     * The job with key finished with result. Passes the result to all attached
+     * listeners.
+     *
+     * @param key
+     * @param result
+     */
+    public void complete(String key, V result) {
+        for (JobListener<V> listener : finish(key)) {
+            try {
+                listener.jobDone(result);
+            } catch (Exception e) {
+                logger.error("Error passing result to listener: ", e);
+            }
+        }
+    }
+
+    /**
+     * The job with key failed with exception e. Passes the exception to all
+     * attached listeners.
+     *
+     * @param key
+     * @param e
+     */
+    public void fail(String key, Exception e) {
+        for (JobListener<V> listener : finish(key)) {
+            try {
+                listener.jobFailed(e);
+            } catch (Exception e1) {
+                logger.error("Error passing error to listener: ", e1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of currently running jobs.
+     *
+     * @return
+     */
+    public int getRunningJobs() {
+        return running.size();
+    }
+
+    /**
+     * Returns the number of jobs that were attached to a running job.
+     *
+     * @return
+     */
+    public int getCoalescedJobs() {
+        return numCoalesced.get();
+    }
+
+}
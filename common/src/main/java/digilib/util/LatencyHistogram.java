@@ -0,0 +1,159 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Latency histogram.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with fixed buckets from 0.1ms to 10s.
+ *
+ * Times are recorded in microseconds. Percentiles are the upper bounds of
+ * the buckets they fall into.
+ *
+ * @author agent
+ *
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    /** upper bounds of the buckets in microseconds (the last bucket is open) */
+    public static final long[] BOUNDS = { 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000,
+            500000, 1000000, 2000000, 5000000, 10000000 };
+
+    /** counts per bucket */
+    protected AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+    /** number of recorded times */
+    protected AtomicLong count = new AtomicLong(0);
+
+    /** sum of recorded times (us) */
+    protected AtomicLong sum = new AtomicLong(0);
+
+    /** max recorded time (us) */
+    protected AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Records a time in microseconds.
+     *
+     * @param micros
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int i = 0;
+        while (i < BOUNDS.length && micros > BOUNDS[i]) {
+            ++i;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long m = max.get();
+        while (micros > m && !max.compareAndSet(m, micros)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Records the time since startNanos (from System.nanoTime()).
+     *
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.get();
+        return (n > 0) ? sum.get() / 1000d / n : 0;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1000d;
+    }
+
+    @Override
+    public double getMedianMillis() {
+        return getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getPercentile95Millis() {
+        return getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getPercentile99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    /**
+     * Returns the upper bound of the bucket of percentile p (0..1) in ms (at
+     * most the max).
+     *
+     * @param p
+     * @return
+     */
+    public double getPercentileMillis(double p) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * n);
+        long c = 0;
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            c += buckets.get(i);
+            if (c >= rank) {
+                return Math.min(BOUNDS[i], max.get()) / 1000d;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < buckets.length(); ++i) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+}
@@ -0,0 +1,57 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Latency histogram.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * JMX interface of LatencyHistogram.
+ *
+ * @author agent
+ *
+ */
+public interface LatencyHistogramMBean {
+
+    /** number of recorded times */
+    public long getCount();
+
+    /** mean time in ms */
+    public double getMeanMillis();
+
+    /** max time in ms */
+    public double getMaxMillis();
+
+    /** median time in ms (bucket bound) */
+    public double getMedianMillis();
+
+    /** 95th percentile in ms (bucket bound) */
+    public double getPercentile95Millis();
+
+    /** 99th percentile in ms (bucket bound) */
+    public double getPercentile99Millis();
+
+    /** counts of the buckets up to 0.1, 0.2, 0.5, 1, 2, 5 ... 10000ms and above */
+    public long[] getBucketCounts();
+
+    /** clears all counts */
+    public void reset();
+
+}
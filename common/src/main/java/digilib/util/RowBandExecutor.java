@@ -0,0 +1,178 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Runs image operations in parallel bands of rows.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs operations on the rows of an image in parallel bands.
+ *
+ * Uses a shared pool of daemon threads (one per processor). Small images are
+ * processed in the calling thread.
+ *
+ * @author agent
+ *
+ */
+public class RowBandExecutor {
+
+    /**
+     * Operation on a band of rows.
+     */
+    public interface RowBandTask {
+        /**
+         * Process the rows from startRow (inclusive) to endRow (exclusive).
+         *
+         * @param startRow
+         * @param endRow
+         */
+        public void run(int startRow, int endRow);
+    }
+
+    private static Logger logger = Logger.getLogger("digilib.jobcenter");
+
+    /** minimum number of pixels per band */
+    public static int minBandPixels = 128 * 1024;
+
+    /** number of threads */
+    protected static int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /** the shared thread pool (created on first use) */
+    private static ExecutorService executor;
+
+    /**
+     * Returns the shared thread pool.
+     *
+     * @return
+     */
+    protected static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            logger.debug("creating row band executor with " + numThreads + " threads");
+            executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                private AtomicInteger num = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "digilib-rowband-" + num.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Runs task on all rows from 0 to numRows with rowLength pixels per row.
+     *
+     * The rows are split in bands that are processed in parallel. Returns
+     * when all bands are done.
+     *
+     * @param numRows
+     * @param rowLength
+     * @param task
+     */
+    public static void execute(int numRows, int rowLength, final RowBandTask task) {
+        int numBands = getNumBands(numRows, rowLength);
+        if (numBands < 2) {
+            // not worth the trouble
+            task.run(0, numRows);
+            return;
+        }
+        int bandHeight = (numRows + numBands - 1) / numBands;
+        List<Future<?>> futures = new ArrayList<Future<?>>(numBands);
+        ExecutorService exec = getExecutor();
+        // submit all bands except the first
+        for (int start = bandHeight; start < numRows; start += bandHeight) {
+            final int s = start;
+            final int e = Math.min(start + bandHeight, numRows);
+            futures.add(exec.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(s, e);
+                }
+            }));
+        }
+        // first band in this thread
+        task.run(0, Math.min(bandHeight, numRows));
+        // wait for the other bands
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted processing row bands", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Returns the number of bands execute() uses for numRows rows of
+     * rowLength pixels (1 means no parallel bands).
+     *
+     * @param numRows
+     * @param rowLength
+     * @return
+     */
+    public static int getNumBands(int numRows, int rowLength) {
+        long pixels = (long) numRows * rowLength;
+        return (int) Math.max(Math.min(Math.min(numThreads, pixels / minBandPixels), numRows), 1);
+    }
+
+    /**
+     * Returns the number of threads.
+     *
+     * @return
+     */
+    public static int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Shuts down the shared thread pool.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Tracing of the rendering pipeline.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A traced operation of the rendering pipeline. The attributes are optional.
+ * The span is recorded when end() is called.
+ *
+ * @author agent
+ *
+ */
+public interface TraceSpan {
+
+    /** path of the file or directory */
+    public void setPath(String path);
+
+    /** region of the image in pixels */
+    public void setRegion(int x, int y, int width, int height);
+
+    /** subsampling factor */
+    public void setSubsample(int subsample);
+
+    /** scaling factor */
+    public void setScale(double scale);
+
+    /** number of bytes read or written */
+    public void setBytes(long bytes);
+
+    /** number of items (e.g. files in a directory) */
+    public void setCount(long count);
+
+    /** ends and records the span */
+    public void end();
+
+}
@@ -0,0 +1,43 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Tracing of the rendering pipeline.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Receiver of trace spans of the rendering pipeline.
+ *
+ * Implementations are found with ServiceLoader (see Tracing).
+ *
+ * @author agent
+ *
+ */
+public interface Tracer {
+
+    /**
+     * Starts a span of operation (one of the Tracing constants).
+     *
+     * @param operation
+     * @return
+     */
+    public TraceSpan begin(String operation);
+
+}
@@ -0,0 +1,144 @@
+package digilib.util;
+
+/*
+ * #%L
+ * Tracing of the rendering pipeline.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Trace spans of the rendering pipeline.
+ *
+ * The first Tracer found by ServiceLoader (in
+ * META-INF/services/digilib.util.Tracer) is used, e.g. the Java Flight
+ * Recorder events of the digilib-jfr module. Without a Tracer all spans are
+ * no-ops.
+ *
+ * @author agent
+ *
+ */
+public class Tracing {
+
+    private static Logger logger = Logger.getLogger(Tracing.class);
+
+    /** rendering an image in ImageWorker */
+    public static final String RENDER = "render";
+
+    /** loading a region of an image file */
+    public static final String LOAD_SUBIMAGE = "loadSubimage";
+
+    /** encoding an image */
+    public static final String WRITE_IMAGE = "writeImage";
+
+    /** reading the files of a directory */
+    public static final String READ_DIR = "readDir";
+
+    /** sending a file as-is */
+    public static final String SEND_FILE = "sendFile";
+
+    /** encoding and sending an image */
+    public static final String SEND_IMAGE = "sendImage";
+
+    /** span that does nothing */
+    public static final TraceSpan NOOP_SPAN = new TraceSpan() {
+        public void setPath(String path) {
+        }
+
+        public void setRegion(int x, int y, int width, int height) {
+        }
+
+        public void setSubsample(int subsample) {
+        }
+
+        public void setScale(double scale) {
+        }
+
+        public void setBytes(long bytes) {
+        }
+
+        public void setCount(long count) {
+        }
+
+        public void end() {
+        }
+    };
+
+    /** the Tracer (null if there is none) */
+    protected static Tracer tracer = loadTracer();
+
+    /**
+     * Returns the first Tracer from ServiceLoader or null.
+     *
+     * @return
+     */
+    protected static Tracer loadTracer() {
+        try {
+            Iterator<Tracer> tracers = ServiceLoader.load(Tracer.class, Tracing.class.getClassLoader()).iterator();
+            if (tracers.hasNext()) {
+                Tracer t = tracers.next();
+                logger.info("Using tracer " + t.getClass().getName());
+                return t;
+            }
+        } catch (ServiceConfigurationError e) {
+            logger.warn("Unable to load tracer: " + e);
+        } catch (LinkageError e) {
+            // tracer needs a newer JVM
+            logger.warn("Unable to load tracer: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Starts a span of operation.
+     *
+     * @param operation
+     * @return
+     */
+    public static TraceSpan begin(String operation) {
+        if (tracer == null) {
+            return NOOP_SPAN;
+        }
+        return tracer.begin(operation);
+    }
+
+    /**
+     * Returns if a Tracer is used.
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return tracer != null;
+    }
+
+    /**
+     * Sets the Tracer (null to turn tracing off).
+     *
+     * @param tracer
+     */
+    public static void setTracer(Tracer tracer) {
+        Tracing.tracer = tracer;
+    }
+
+}
@@ -0,0 +1,123 @@
+package digilib.jfr;
+
+/*
+ * #%L
+ * Java Flight Recorder events.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import digilib.util.TraceSpan;
+import digilib.util.Tracer;
+import digilib.util.Tracing;
+
+/**
+ * Tracer that records the spans of the rendering pipeline as Java Flight
+ * Recorder events "digilib.Render", "digilib.LoadSubimage" etc.
+ *
+ * Registered in META-INF/services/digilib.util.Tracer. Events that are not
+ * enabled in the running recording cost only the check.
+ *
+ * @author agent
+ *
+ */
+public class JfrTracer implements Tracer {
+
+    @Override
+    public TraceSpan begin(String operation) {
+        PipelineEvent event = createEvent(operation);
+        if (event == null || !event.isEnabled()) {
+            return Tracing.NOOP_SPAN;
+        }
+        event.begin();
+        return new JfrSpan(event);
+    }
+
+    /**
+     * Returns a new event for operation (or null).
+     *
+     * @param operation
+     * @return
+     */
+    protected PipelineEvent createEvent(String operation) {
+        switch (operation) {
+        case Tracing.RENDER:
+            return new RenderEvent();
+        case Tracing.LOAD_SUBIMAGE:
+            return new LoadSubimageEvent();
+        case Tracing.WRITE_IMAGE:
+            return new WriteImageEvent();
+        case Tracing.READ_DIR:
+            return new ReadDirEvent();
+        case Tracing.SEND_FILE:
+            return new SendFileEvent();
+        case Tracing.SEND_IMAGE:
+            return new SendImageEvent();
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * TraceSpan that sets the fields of a PipelineEvent.
+     */
+    protected static class JfrSpan implements TraceSpan {
+
+        protected PipelineEvent event;
+
+        public JfrSpan(PipelineEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public void setPath(String path) {
+            event.path = path;
+        }
+
+        @Override
+        public void setRegion(int x, int y, int width, int height) {
+            event.region = x + "," + y + "," + width + "," + height;
+        }
+
+        @Override
+        public void setSubsample(int subsample) {
+            event.subsample = subsample;
+        }
+
+        @Override
+        public void setScale(double scale) {
+            event.scale = scale;
+        }
+
+        @Override
+        public void setBytes(long bytes) {
+            event.bytes = bytes;
+        }
+
+        @Override
+        public void setCount(long count) {
+            event.count = count;
+        }
+
+        @Override
+        public void end() {
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package digilib.jfr;
+
+/*
+ * #%L
+ * Java Flight Recorder events.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common fields of the digilib pipeline events.
+ *
+ * @author agent
+ *
+ */
+@Category("digilib")
+public abstract class PipelineEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Region")
+    String region;
+
+    @Label("Subsample")
+    int subsample;
+
+    @Label("Scale")
+    double scale;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Count")
+    long count;
+
+}
@@ -46,17 +46,28 @@ import digilib.auth.AuthOps;
 import digilib.auth.AuthOpsFactory;
 import digilib.image.DocuImage;
 import digilib.io.AliasingDocuDirCache;
+import digilib.io.BaseDirDocuDirectory;
 import digilib.io.DocuDirCache;
+import digilib.io.DocuDirCacheMBean;
+import digilib.io.DocuDirCrawler;
 import digilib.io.DocuDirectory;
 import digilib.io.DocuDirectoryFactory;
 import digilib.io.FileOps;
 import digilib.io.FileOps.FileClass;
+import digilib.io.ImageInfoIndex;
 import digilib.meta.DirMeta;
 import digilib.meta.FileMeta;
 import digilib.meta.MetaFactory;
 import digilib.servlet.ServletOps;
+import digilib.util.AdaptiveQuality;
+import digilib.util.AdmissionController;
 import digilib.util.DigilibJobCenter;
+import digilib.util.DigilibJobCenterMBean;
+import digilib.util.DigilibMBeans;
+import digilib.util.ImageResultCache;
+import digilib.util.JobCoalescer;
 import digilib.util.Parameter;
+import digilib.util.RowBandExecutor;
 import digilib.util.XMLListLoader;
 
 /**
@@ -84,6 +95,16 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
 
     public static final String DIR_CACHE_KEY = "servlet.dir.cache";
 
+    public static final String IMAGE_CACHE_KEY = "servlet.image.cache";
+
+    public static final String JOB_COALESCER_KEY = "servlet.worker.coalescer";
+
+    public static final String DIR_CRAWLER_KEY = "servlet.dir.crawler";
+
+    public static final String ADMISSION_KEY = "servlet.worker.admission";
+
+    public static final String QUALITY_KEY = "servlet.worker.quality";
+
     /** the time the webapp (i.e. this class) was loaded */
     public final Long webappStartTime = System.currentTimeMillis();
 
@@ -114,6 +135,16 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
         newParameter(DIR_CACHE_KEY, null, null, 's');
         // Executor for image operations
         newParameter(IMAGEEXECUTOR_KEY, null, null, 's');
+        // ImageResultCache instance
+        newParameter(IMAGE_CACHE_KEY, null, null, 's');
+        // JobCoalescer for image jobs
+        newParameter(JOB_COALESCER_KEY, null, null, 's');
+        // DocuDirCrawler instance
+        newParameter(DIR_CRAWLER_KEY, null, null, 's');
+        // AdmissionController for image jobs
+        newParameter(ADMISSION_KEY, null, null, 's');
+        // AdaptiveQuality for image jobs
+        newParameter(QUALITY_KEY, null, null, 's');
         // AuthOps instance
         newParameter(AUTH_OP_KEY, null, null, 's');
         // classes TODO: do we need these as parameters?
@@ -152,6 +183,28 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
         newParameter("worker-threads", new Integer(2), null, 'f');
         // max number of waiting threads
         newParameter("max-waiting-threads", new Integer(20), null, 'f');
+        // max number of working threads for expensive jobs (0 means all but one)
+        newParameter("worker-heavy-threads", new Integer(0), null, 'f');
+        // min estimated cost of expensive jobs (source megapixels * destination megapixels)
+        newParameter("worker-heavy-cost", new Float(1f), null, 'f');
+        // max time a job waits for cheaper jobs submitted after it (ms)
+        newParameter("worker-aging-time", new Integer(2000), null, 'f');
+        // threads for image jobs (fixed: worker-threads, virtual: worker-io-threads on virtual threads)
+        newParameter("worker-thread-mode", "fixed", null, 'f');
+        // max number of concurrent image jobs in virtual thread mode
+        newParameter("worker-io-threads", new Integer(200), null, 'f');
+        // max number of concurrent image computations in virtual thread mode (0 means number of processors)
+        newParameter("worker-cpu-threads", new Integer(0), null, 'f');
+        // max estimated memory of all running image jobs in MB (0 means half of the Java heap, -1 means no limit)
+        newParameter("worker-memory-budget", new Integer(0), null, 'f');
+        // time after which an overloaded request should be retried (s) (0 means no Retry-After header)
+        newParameter("worker-retry-after", new Integer(5), null, 'f');
+        // average wait of image jobs that starts lowering the image quality (ms) (0 means never)
+        newParameter("worker-degrade-wait", new Integer(0), null, 'f');
+        // register statistics as JMX MBeans
+        newParameter("jmx-enabled", Boolean.TRUE, null, 'f');
+        // let identical concurrent image requests share one job
+        newParameter("worker-coalescing", Boolean.TRUE, null, 'f');
         // FileMeta implementation
         newParameter("filemeta-class", "digilib.meta.IndexMetaFileMeta", null, 'f');
         // DirMeta implementation
@@ -160,6 +213,40 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
         newParameter("authops-class", "digilib.auth.PathServletAuthOps", null, 'f');
         // DocuDirectory implementation
         newParameter("docudirectory-class", "digilib.io.BaseDirDocuDirectory", null, 'f');
+        // max number of directories in the directory cache (0 means no limit)
+        newParameter("dircache-max-dirs", new Integer(0), null, 'f');
+        // max number of files in the directory cache (0 means no limit)
+        newParameter("dircache-max-files", new Integer(0), null, 'f');
+        // max time since last access of a cached directory in s (0 means no limit)
+        newParameter("dircache-max-idle", new Integer(0), null, 'f');
+        // check cached directories for modifications on every access ("stat") or in the background ("poll")
+        newParameter("dircache-check-mode", "stat", null, 'f');
+        // time between background checks of cached directories in s
+        newParameter("dircache-poll-interval", new Integer(10), null, 'f');
+        // save the directory cache on shutdown and restore it on startup
+        newParameter("dircache-snapshot-allowed", Boolean.TRUE, null, 'f');
+        // file for the directory cache snapshot (empty: in servlet temp dir)
+        newParameter("dircache-snapshot-file", "", null, 'f');
+        // walk the first base directory on startup to fill the directory cache
+        newParameter("dircache-crawler-allowed", Boolean.FALSE, null, 'f');
+        // max depth of directories for the crawler (0 means no limit)
+        newParameter("dircache-crawler-depth", new Integer(0), null, 'f');
+        // number of crawler threads
+        newParameter("dircache-crawler-threads", new Integer(1), null, 'f');
+        // max number of directories per second for the crawler (0 means no limit)
+        newParameter("dircache-crawler-rate", new Integer(0), null, 'f');
+        // cache result images
+        newParameter("img-resultcache-allowed", Boolean.FALSE, null, 'f');
+        // size of the in-memory result image cache (MB)
+        newParameter("img-resultcache-memory-size", new Integer(64), null, 'f');
+        // directory for the on-disk result image cache (empty: no disk cache)
+        newParameter("img-resultcache-dir", "", null, 'f');
+        // size of the on-disk result image cache (MB)
+        newParameter("img-resultcache-disk-size", new Integer(1024), null, 'f');
+        // keep a persistent index of image sizes and types
+        newParameter("img-index-allowed", Boolean.TRUE, null, 'f');
+        // directory for the image index files (empty: servlet temp dir)
+        newParameter("img-index-dir", "", null, 'f');
 
     }
 
@@ -322,6 +409,8 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
         // say hello in the log file
         logger.info("***** Digital Image Library Configuration (version " + getVersion() + ") *****");
         try {
+            // JMX statistics
+            DigilibMBeans.setEnabled(config.getAsBoolean("jmx-enabled"));
             // directory cache
             DocuDirCache dirCache;
             if (config.getAsBoolean("use-mapping")) {
@@ -333,7 +422,20 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
                 // without mapping
                 dirCache = new DocuDirCache(FileClass.IMAGE, this);
             }
+            if (config.getAsBoolean("dircache-snapshot-allowed")) {
+                // restore directories from the last snapshot
+                File snapshotFile = getDirCacheSnapshotFile(context);
+                if (snapshotFile != null) {
+                    dirCache.openSnapshot(snapshotFile, (String[]) config.getValue("basedir-list"));
+                }
+            }
+            if (config.getAsString("dircache-check-mode").equals("poll")) {
+                // check directories in the background
+                dirCache.startWatcher(config.getAsInt("dircache-poll-interval") * 1000L);
+            }
             config.setValue(DIR_CACHE_KEY, dirCache);
+            DigilibMBeans.register((DocuDirCacheMBean) dirCache, DocuDirCacheMBean.class, "DocuDirCache",
+                    "name=" + DIR_CACHE_KEY);
             // useAuthentication
             if (config.getAsBoolean("use-authorization")) {
                 AuthOps authOp = AuthOpsFactory.getAuthOpsInstance();
@@ -348,8 +450,75 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
             // digilib worker threads
             int nt = config.getAsInt("worker-threads");
             int mt = config.getAsInt("max-waiting-threads");
-            DigilibJobCenter<DocuImage> imageExecutor = new DigilibJobCenter<DocuImage>(nt, mt, false, IMAGEEXECUTOR_KEY);
+            int ht = config.getAsInt("worker-heavy-threads");
+            if (ht <= 0) {
+                // no heavy lane: all threads run all jobs
+                ht = nt;
+            }
+            DigilibJobCenter<DocuImage> imageExecutor = new DigilibJobCenter<DocuImage>(nt, mt, false, IMAGEEXECUTOR_KEY,
+                    ht, config.getAsFloat("worker-heavy-cost"), config.getAsInt("worker-aging-time"));
+            if (config.getAsString("worker-thread-mode").equals("virtual")) {
+                // many threads waiting for I/O, limited number of threads computing
+                int ct = config.getAsInt("worker-cpu-threads");
+                if (ct <= 0) {
+                    ct = Runtime.getRuntime().availableProcessors();
+                }
+                imageExecutor.setIoMode(config.getAsInt("worker-io-threads"), ct, true);
+            }
             config.setValue(IMAGEEXECUTOR_KEY, imageExecutor);
+            DigilibMBeans.register((DigilibJobCenterMBean) imageExecutor, DigilibJobCenterMBean.class, "JobCenter",
+                    "name=" + IMAGEEXECUTOR_KEY);
+            if (config.getAsBoolean("worker-coalescing")) {
+                config.setValue(JOB_COALESCER_KEY, new JobCoalescer<byte[]>());
+            }
+            // lower image quality under load
+            int dw = config.getAsInt("worker-degrade-wait");
+            if (dw > 0) {
+                config.setValue(QUALITY_KEY, new AdaptiveQuality(imageExecutor, dw));
+            }
+            // memory budget for image jobs
+            long budget = config.getAsInt("worker-memory-budget") * 1024L * 1024L;
+            if (budget == 0) {
+                budget = Runtime.getRuntime().maxMemory() / 2;
+            }
+            if (budget > 0) {
+                config.setValue(ADMISSION_KEY, new AdmissionController(budget, config.getAsInt("worker-retry-after")));
+            }
+            // result image cache
+            if (config.getAsBoolean("img-resultcache-allowed")) {
+                long memSize = config.getAsInt("img-resultcache-memory-size") * 1024L * 1024L;
+                long diskSize = config.getAsInt("img-resultcache-disk-size") * 1024L * 1024L;
+                File cacheDir = null;
+                String cd = config.getAsString("img-resultcache-dir");
+                if (cd != null && cd.length() > 0) {
+                    // relative paths are inside the webapp
+                    String fn = ServletOps.getFile(cd, context);
+                    if (fn != null) {
+                        cacheDir = new File(fn);
+                    }
+                }
+                ImageResultCache imageCache = new ImageResultCache(memSize, cacheDir, diskSize);
+                config.setValue(IMAGE_CACHE_KEY, imageCache);
+                logger.info("Result image cache: " + memSize + " bytes in memory, dir " + cacheDir);
+            }
+            // persistent image size index
+            if (config.getAsBoolean("img-index-allowed")) {
+                File indexDir = null;
+                String id = config.getAsString("img-index-dir");
+                if (id != null && id.length() > 0) {
+                    // relative paths are inside the webapp
+                    String fn = ServletOps.getFile(id, context);
+                    if (fn != null) {
+                        indexDir = new File(fn);
+                    }
+                } else {
+                    File tmpDir = (File) context.getAttribute("javax.servlet.context.tempdir");
+                    if (tmpDir != null) {
+                        indexDir = new File(tmpDir, "digilib-index");
+                    }
+                }
+                ImageInfoIndex.setup(indexDir, (String[]) config.getValue("basedir-list"));
+            }
             /*
              * set as the servlets main config
              */
@@ -372,6 +541,7 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
                 // initialise this instance
                 readConfig(context);
                 configure(context);
+                startCrawler();
             } catch (Exception e) {
                 logger.error("Error reading digilib servlet configuration:", e);
             }
@@ -400,8 +570,75 @@ public class DigilibServletConfiguration extends DigilibConfiguration implements
                 logger.error("Still running threads when shutting down image job queue: " + nrj);
             }
         }
+        // stop the crawler
+        DocuDirCrawler crawler = (DocuDirCrawler) config.getValue(DIR_CRAWLER_KEY);
+        if (crawler != null) {
+            crawler.stop();
+        }
+        // stop checking directories
+        DocuDirCache dirCache = (DocuDirCache) config.getValue(DIR_CACHE_KEY);
+        if (dirCache != null) {
+            dirCache.stopWatcher();
+            if (config.getAsBoolean("dircache-snapshot-allowed")) {
+                // save directories for the next start
+                File snapshotFile = config.getDirCacheSnapshotFile(context);
+                if (snapshotFile != null) {
+                    dirCache.writeSnapshot(snapshotFile, (String[]) config.getValue("basedir-list"));
+                }
+            }
+        }
+        // shut down thread pool for image operations
+        RowBandExecutor.shutdown();
+        // shut down thread pool for reading directories
+        BaseDirDocuDirectory.shutdownDirReader();
+        // close image index files
+        ImageInfoIndex.closeAll();
+        // remove JMX statistics
+        DigilibMBeans.unregisterAll();
+    }
+
+
+    /**
+     * Starts the DocuDirCrawler for the first base directory if it is
+     * configured.
+     */
+    protected void startCrawler() {
+        if (!getAsBoolean("dircache-crawler-allowed")) {
+            return;
+        }
+        DocuDirCache dirCache = (DocuDirCache) getValue(DIR_CACHE_KEY);
+        String[] baseDirs = (String[]) getValue("basedir-list");
+        if (dirCache == null || baseDirs == null || baseDirs.length == 0) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        DigilibJobCenter<DocuImage> imageExecutor = (DigilibJobCenter<DocuImage>) getValue(IMAGEEXECUTOR_KEY);
+        DocuDirCrawler crawler = new DocuDirCrawler(dirCache, new File(baseDirs[0]),
+                getAsInt("dircache-crawler-depth"), getAsInt("dircache-crawler-threads"),
+                getAsInt("dircache-crawler-rate"), imageExecutor);
+        setValue(DIR_CRAWLER_KEY, crawler);
+        crawler.start();
     }
 
+    /**
+     * Returns the file for the directory cache snapshot or null.
+     * 
+     * @param context
+     * @return
+     */
+    protected File getDirCacheSnapshotFile(ServletContext context) {
+        String sf = getAsString("dircache-snapshot-file");
+        if (sf != null && sf.length() > 0) {
+            // relative paths are inside the webapp
+            String fn = ServletOps.getFile(sf, context);
+            return (fn != null) ? new File(fn) : null;
+        }
+        File tmpDir = (File) context.getAttribute("javax.servlet.context.tempdir");
+        if (tmpDir != null) {
+            return new File(tmpDir, "digilib-dircache.snapshot");
+        }
+        return null;
+    }
 
     /**
      * Sets the current DigilibConfiguration in the context. 
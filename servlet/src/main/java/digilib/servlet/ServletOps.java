@@ -48,6 +48,8 @@ import digilib.io.FileOpException;
 import digilib.io.FileOps;
 import digilib.io.ImageInput;
 import digilib.util.ImageSize;
+import digilib.util.TraceSpan;
+import digilib.util.Tracing;
 
 public class ServletOps {
 
@@ -192,6 +194,21 @@ public class ServletOps {
         out.println("</body></html>");
     }
 
+    /**
+     * Sends error 503 (service unavailable) with a Retry-After header.
+     * 
+     * @param retryAfter
+     *            time after which the request should be retried (s, 0 for no header)
+     * @param response
+     * @throws IOException
+     */
+    public static void sendServiceUnavailable(int retryAfter, HttpServletResponse response) throws IOException {
+        if (retryAfter > 0) {
+            response.setHeader("Retry-After", Integer.toString(retryAfter));
+        }
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
     /**
      * Transfers an image file as-is with the mime type mt.
      * 
@@ -262,6 +279,9 @@ public class ServletOps {
             response.addHeader("Content-Disposition", "attachment; filename=\""+name+"\"");
         }
         FileInputStream inFile = null;
+        TraceSpan span = Tracing.begin(Tracing.SEND_FILE);
+        span.setPath(f.getPath());
+        long bytes = 0;
         try {
             inFile = new FileInputStream(f);
             OutputStream outStream = response.getOutputStream();
@@ -273,6 +293,7 @@ public class ServletOps {
             while ((len = inFile.read(dataBuffer)) != -1) {
                 // copy out file
                 outStream.write(dataBuffer, 0, len);
+                bytes += len;
             }
         } finally {
             try {
@@ -282,6 +303,8 @@ public class ServletOps {
             } catch (IOException e) {
                 // nothing to do
             }
+            span.setBytes(bytes);
+            span.end();
         }
     }
 
@@ -320,7 +343,10 @@ public class ServletOps {
         //logger.debug("sending to response: ("+ headersToString(response) + ") committed=" + response.isCommitted());
         logger.debug("sending to response. committed=" + response.isCommitted());
         // TODO: should we erase or replace old last-modified header?
+        TraceSpan span = Tracing.begin(Tracing.SEND_IMAGE);
         try {
+            // the bytes are counted by the nested writeImage span
+            span.setRegion(0, 0, img.getWidth(), img.getHeight());
             OutputStream outstream = response.getOutputStream();
             // setup output -- if mime type is set use that otherwise
             // if source is JPG then dest will be JPG else it's PNG
@@ -343,10 +369,38 @@ public class ServletOps {
             img.writeImage(mimeType, outstream);
         } catch (IOException e) {
             throw new ServletException("Error sending image:", e);
+        } finally {
+            span.end();
         }
         // TODO: should we: finally { img.dispose(); }
     }
 
+    /**
+     * Write encoded image data to ServletResponse response.
+     *
+     * @param data
+     * @param mimeType
+     * @param response
+     * @param logger
+     * @throws ServletException Exception on sending data.
+     */
+    public static void sendImageData(byte[] data, String mimeType,
+            HttpServletResponse response, Logger logger) throws ServletException {
+        if (response == null) {
+            logger.error("No response!");
+            return;
+        }
+        logger.debug("sending image data to response. committed=" + response.isCommitted());
+        try {
+            response.setContentType(mimeType);
+            response.setContentLength(data.length);
+            OutputStream outstream = response.getOutputStream();
+            outstream.write(data);
+        } catch (IOException e) {
+            throw new ServletException("Error sending image:", e);
+        }
+    }
+
 
     /**
      * Returns IIIF compatible image information as application/json response.
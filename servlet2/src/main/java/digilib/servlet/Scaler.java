@@ -25,6 +25,7 @@ package digilib.servlet;
  * Author: Robert Casties (robcast@berlios.de)
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
@@ -46,11 +47,15 @@ import digilib.conf.DigilibServletRequest;
 import digilib.image.DocuImage;
 import digilib.image.ImageJobDescription;
 import digilib.image.ImageOpException;
+import digilib.image.ImageStageStats;
 import digilib.image.ImageWorker;
 import digilib.io.DocuDirCache;
 import digilib.io.DocuDirectory;
 import digilib.io.ImageInput;
+import digilib.util.AdaptiveQuality;
+import digilib.util.AdmissionController;
 import digilib.util.DigilibJobCenter;
+import digilib.util.ImageResultCache;
 
 /**
  * Version of Scaler servlet that uses a thread pool but not Servlet 3.0 async
@@ -88,6 +93,18 @@ public class Scaler extends HttpServlet {
     /** Image executor */
     DigilibJobCenter<DocuImage> imageJobCenter;
 
+    /** cache for result images (may be null) */
+    protected ImageResultCache imageCache;
+
+    /** memory budget for image jobs (may be null) */
+    protected AdmissionController admission;
+
+    /** quality degradation under load (may be null) */
+    protected AdaptiveQuality adaptiveQuality;
+
+    /** time after which an overloaded request should be retried (s) */
+    protected int retryAfter;
+
     /** authentication error image file */
     public static File denyImgFile;
 
@@ -146,6 +163,16 @@ public class Scaler extends HttpServlet {
         // Executor
         imageJobCenter = (DigilibJobCenter<DocuImage>) dlConfig.getValue("servlet.worker.imageexecutor");
 
+        // result image cache
+        imageCache = (ImageResultCache) dlConfig.getValue("servlet.image.cache");
+
+        // memory budget for jobs
+        admission = (AdmissionController) dlConfig.getValue("servlet.worker.admission");
+        retryAfter = dlConfig.getAsInt("worker-retry-after");
+
+        // lower quality under load
+        adaptiveQuality = (AdaptiveQuality) dlConfig.getValue("servlet.worker.quality");
+
         denyImgFile = ServletOps.getFile(dlConfig.getAsFile("denied-image"), context);
         errorImgFile = ServletOps.getFile(dlConfig.getAsFile("error-image"), context);
         notfoundImgFile = ServletOps.getFile(dlConfig.getAsFile("notfound-image"), context);
@@ -271,28 +298,86 @@ public class Scaler extends HttpServlet {
                 return;
             }
 
-            // check load of workers
-            if (imageJobCenter.isBusy()) {
+            // send the image from the cache if we rendered it before
+            String cacheKey = null;
+            if (imageCache != null) {
+                cacheKey = jobTicket.getImageCacheKey();
+                byte[] data = imageCache.get(cacheKey);
+                if (data != null) {
+                    logger.debug("Sending cached image.");
+                    // cached images have full quality
+                    response.setHeader("X-Digilib-Quality", jobTicket.getQualityDescription());
+                    ServletOps.sendImageData(data, jobTicket.getOutputMimeType(), response, logger);
+                    logger.info("Done in " + (System.currentTimeMillis() - startTime) + "ms");
+                    return;
+                }
+            }
+
+            // lower the quality under load
+            if (adaptiveQuality != null) {
+                jobTicket.setDegradation(adaptiveQuality.getLevel());
+            }
+            response.setHeader("X-Digilib-Quality", jobTicket.getQualityDescription());
+
+            // check load of workers for the cost of this job
+            double cost = jobTicket.getEstimatedCost();
+            if (imageJobCenter.isBusy(cost)) {
                 logger.error("Servlet overloaded!");
-                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                ServletOps.sendServiceUnavailable(retryAfter, response);
                 return;
             }
-            // create job
-            ImageWorker job = new ImageWorker(dlConfig, jobTicket);
-            // submit job
-            Future<DocuImage> jobResult = imageJobCenter.submit(job);
-            // wait for result
-            DocuImage img = jobResult.get();
-            // forced destination image type
-            String mt = null;
-            if (jobTicket.hasOption("jpg")) {
-                mt = "image/jpeg";
-            } else if (jobTicket.hasOption("png")) {
-                mt = "image/png";
+            // reserve the estimated memory of the job
+            int memReservation = 0;
+            if (admission != null) {
+                memReservation = admission.tryAdmit(jobTicket.getEstimatedMemory());
+                if (memReservation < 0) {
+                    logger.error("Not enough memory for image job!");
+                    ServletOps.sendServiceUnavailable(retryAfter, response);
+                    return;
+                }
+            }
+            try {
+                // create job (with a CPU permit of the job center after looking up the input)
+                ImageWorker job = new ImageWorker(dlConfig, jobTicket);
+                job.setCpuLimiter(imageJobCenter);
+                // submit job
+                Future<DocuImage> jobResult = imageJobCenter.submit(job, cost);
+                // wait for result
+                DocuImage img = jobResult.get();
+                if (imageCache != null) {
+                    // encode the image and store it in the cache (not in lower quality)
+                    String mt = jobTicket.getOutputMimeType();
+                    long stageTime = System.nanoTime();
+                    ByteArrayOutputStream ostream = new ByteArrayOutputStream();
+                    img.writeImage(mt, ostream);
+                    byte[] data = ostream.toByteArray();
+                    ImageStageStats.record(ImageStageStats.ENCODE, jobTicket, img, stageTime);
+                    if (jobTicket.getDegradation() == AdaptiveQuality.FULL) {
+                        imageCache.put(cacheKey, data);
+                    }
+                    stageTime = System.nanoTime();
+                    ServletOps.sendImageData(data, mt, response, logger);
+                    ImageStageStats.record(ImageStageStats.SEND, jobTicket, img, stageTime);
+                    logger.debug("Job Processing Time: " + (System.currentTimeMillis() - startTime) + "ms");
+                    return;
+                }
+                // forced destination image type
+                String mt = null;
+                if (jobTicket.hasOption("jpg")) {
+                    mt = "image/jpeg";
+                } else if (jobTicket.hasOption("png")) {
+                    mt = "image/png";
+                }
+                // send image
+                long encodeTime = System.nanoTime();
+                ServletOps.sendImage(img, mt, response, logger);
+                ImageStageStats.record(ImageStageStats.ENCODE, jobTicket, img, encodeTime);
+                logger.debug("Job Processing Time: " + (System.currentTimeMillis() - startTime) + "ms");
+            } finally {
+                if (admission != null) {
+                    admission.release(memReservation);
+                }
             }
-            // send image
-            ServletOps.sendImage(img, mt, response, logger);
-            logger.debug("Job Processing Time: " + (System.currentTimeMillis() - startTime) + "ms");
 
         } catch (ImageOpException e) {
             logger.error(e.getClass() + ": " + e.getMessage());
@@ -27,6 +27,7 @@ package digilib.servlet;
  * Author: Robert Casties (robcast@berlios.de) 19.2.2011
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import javax.servlet.AsyncContext;
@@ -41,9 +42,16 @@ import digilib.conf.DigilibConfiguration;
 import digilib.image.DocuImage;
 import digilib.image.ImageJobDescription;
 import digilib.image.ImageOpException;
+import digilib.image.ImageStageStats;
 import digilib.image.ImageWorker;
 import digilib.servlet.Scaler.ErrMsg;
 import digilib.servlet.Scaler.Error;
+import digilib.util.AdaptiveQuality;
+import digilib.util.AdmissionController;
+import digilib.util.DigilibJobCenter;
+import digilib.util.ImageResultCache;
+import digilib.util.JobCoalescer;
+import digilib.util.JobCoalescer.JobListener;
 
 /**
  * Worker class for the asynchronous Servlet API.
@@ -51,7 +59,7 @@ import digilib.servlet.Scaler.Error;
  * @author casties
  * 
  */
-public class AsyncServletWorker implements Runnable, AsyncListener {
+public class AsyncServletWorker implements Runnable, AsyncListener, JobListener<byte[]> {
 
     /** the AsyncServlet context */
     private AsyncContext asyncContext;
@@ -64,7 +72,23 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
     private ErrMsg errMsgType = ErrMsg.IMAGE;
     private ImageJobDescription jobinfo;
     /** flag to indicate that the response is completed (on abort) */
-    private boolean completed = false;
+    private volatile boolean completed = false;
+    /** cache for result images (may be null) */
+    private ImageResultCache imageCache;
+    /** coalescer for identical jobs (may be null) */
+    private JobCoalescer<byte[]> jobCoalescer;
+    /** the job center running this worker */
+    private DigilibJobCenter<DocuImage> jobCenter;
+    /** memory budget for jobs (may be null) */
+    private AdmissionController admission;
+    /** reserved memory to release when done */
+    private int memReservation = 0;
+    /** key of the result image for the cache (may be null) */
+    private String imageKey = null;
+    /** key of this job in the JobCoalescer (null if not leading a job) */
+    private String jobKey = null;
+    /** DocuImage class that rendered the image (for stats) */
+    private Class<?> docuImageClass = null;
     /** AsyncRequest timeout */
     protected static long timeout = 60000l;
 
@@ -72,6 +96,7 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
      * @param dlConfig
      * @param jobinfo
      */
+    @SuppressWarnings("unchecked")
     public AsyncServletWorker(DigilibConfiguration dlConfig,
             ImageJobDescription jobinfo, AsyncContext asyncContext,
             ErrMsg errMsgType, long startTime) {
@@ -84,6 +109,10 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
         this.startTime = startTime;
         this.errMsgType = errMsgType;
         this.jobinfo = jobinfo;
+        this.imageCache = (ImageResultCache) dlConfig.getValue("servlet.image.cache");
+        this.jobCoalescer = (JobCoalescer<byte[]>) dlConfig.getValue("servlet.worker.coalescer");
+        this.jobCenter = (DigilibJobCenter<DocuImage>) dlConfig.getValue("servlet.worker.imageexecutor");
+        this.admission = (AdmissionController) dlConfig.getValue("servlet.worker.admission");
     }
 
     /**
@@ -92,8 +121,12 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
     @Override
     public void run() {
         try {
+            if (imageCache != null || jobCoalescer != null) {
+                runBuffered();
+                return;
+            }
             // render the image
-            DocuImage img = imageWorker.call();
+            DocuImage img = render();
             if (completed) {
                 logger.debug("AsyncServletWorker already completed (after scaling)!");
                 return;
@@ -106,8 +139,10 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
                 mt = "image/png";
             }
             // send image
+            long encodeTime = System.nanoTime();
             ServletOps.sendImage(img, mt,
                     (HttpServletResponse) asyncContext.getResponse(), logger);
+            ImageStageStats.record(ImageStageStats.ENCODE, jobinfo, img, encodeTime);
             logger.debug("Job done in: "
                     + (System.currentTimeMillis() - startTime) + "ms");
         } catch (ImageOpException e) {
@@ -123,6 +158,11 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
         } catch (Exception e) {
             logger.error("Other error: ", e);
         } finally {
+            if (admission != null) {
+                // the image is done (or failed)
+                admission.release(memReservation);
+                memReservation = 0;
+            }
             if (completed) {
                 logger.debug("AsyncServletWorker already completed (finally)!");
             } else {
@@ -135,6 +175,217 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
 
     }
 
+    /**
+     * Sends the image from the cache or runs the ImageWorker and encodes the
+     * image. Stores the encoded image in the cache, passes it to the jobs
+     * waiting for the same image and writes it to the ServletResponse.
+     * 
+     * @throws ImageOpException
+     * @throws IOException
+     * @throws ServletException
+     */
+    protected void runBuffered() throws ImageOpException, IOException, ServletException {
+        boolean passed = false;
+        try {
+            String mt = jobinfo.getOutputMimeType();
+            byte[] data = null;
+            if (imageCache != null && imageKey != null) {
+                // another job may have rendered the same image in the meantime
+                data = imageCache.get(imageKey);
+            }
+            if (data == null) {
+                // render and encode the image
+                data = renderEncoded(mt);
+                if (imageCache != null && imageKey != null && jobinfo.getDegradation() == AdaptiveQuality.FULL) {
+                    imageCache.put(imageKey, data);
+                }
+            } else {
+                logger.debug("Sending cached image.");
+            }
+            if (jobKey != null) {
+                // pass the result to the waiting jobs
+                jobCoalescer.complete(jobKey, data);
+            }
+            passed = true;
+            if (completed) {
+                logger.debug("AsyncServletWorker already completed (after scaling)!");
+                return;
+            }
+            // send image
+            long sendTime = System.nanoTime();
+            ServletOps.sendImageData(data, mt, (HttpServletResponse) asyncContext.getResponse(), logger);
+            if (docuImageClass != null) {
+                ImageStageStats.record(ImageStageStats.SEND, jobinfo.getInput().getMimetype(), docuImageClass, sendTime);
+            }
+            logger.debug("Job done in: " + (System.currentTimeMillis() - startTime) + "ms");
+        } finally {
+            if (!passed && jobKey != null) {
+                // the waiting jobs must not wait forever
+                jobCoalescer.fail(jobKey, new ImageOpException("Error rendering image!"));
+            }
+        }
+    }
+
+    /**
+     * Sets the memory reserved for this job in the AdmissionController that
+     * is released when the job is done.
+     * 
+     * @param memReservation
+     */
+    public void setMemoryReservation(int memReservation) {
+        this.memReservation = memReservation;
+    }
+
+    /**
+     * Sets the key of the result image for the image cache.
+     * 
+     * @param imageKey
+     */
+    public void setImageKey(String imageKey) {
+        this.imageKey = imageKey;
+    }
+
+    /**
+     * Sets the key this job joined the JobCoalescer with as leader. The
+     * waiting jobs are completed or failed with exactly this key.
+     * 
+     * @param jobKey
+     */
+    public void setJobKey(String jobKey) {
+        this.jobKey = jobKey;
+    }
+
+    /**
+     * Stops the ImageWorker unless other jobs are waiting for its result.
+     */
+    protected void stopWorker() {
+        if (jobKey != null && jobCoalescer.getListenerCount(jobKey) > 0) {
+            logger.debug("Not stopping worker with attached jobs.");
+            return;
+        }
+        imageWorker.stopNow();
+    }
+
+    /**
+     * Runs the ImageWorker (it takes a CPU permit of the job center after
+     * looking up the input).
+     * 
+     * @return
+     * @throws ImageOpException
+     * @throws IOException
+     */
+    protected DocuImage render() throws ImageOpException, IOException {
+        imageWorker.setCpuLimiter(jobCenter);
+        return imageWorker.call();
+    }
+
+    /**
+     * Runs the ImageWorker and encodes the image (with a CPU permit of the job
+     * center for rendering and encoding).
+     * 
+     * @param mt
+     * @return
+     * @throws ImageOpException
+     * @throws IOException
+     */
+    protected byte[] renderEncoded(String mt) throws ImageOpException, IOException {
+        DocuImage img = render();
+        if (img == null) {
+            throw new ImageOpException("ImageWorker stopped.");
+        }
+        docuImageClass = img.getClass();
+        acquireCpu(img);
+        try {
+            long encodeTime = System.nanoTime();
+            ByteArrayOutputStream ostream = new ByteArrayOutputStream();
+            img.writeImage(mt, ostream);
+            ImageStageStats.record(ImageStageStats.ENCODE, jobinfo, img, encodeTime);
+            return ostream.toByteArray();
+        } finally {
+            jobCenter.releaseCpu();
+        }
+    }
+
+    /**
+     * Waits for a CPU permit of the job center.
+     * 
+     * @param img
+     * @throws ImageOpException
+     */
+    protected void acquireCpu(DocuImage img) throws ImageOpException {
+        long waitTime = System.nanoTime();
+        try {
+            jobCenter.acquireCpu();
+            if (jobCenter.isIoMode()) {
+                ImageStageStats.record(ImageStageStats.CPU, jobinfo, img, waitTime);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImageOpException("Interrupted waiting for CPU.");
+        }
+    }
+
+    /**
+     * Sends the image from the job this worker was attached to.
+     * 
+     * @see digilib.util.JobCoalescer.JobListener#jobDone(java.lang.Object)
+     */
+    @Override
+    public synchronized void jobDone(byte[] data) {
+        if (completed) {
+            logger.debug("AsyncServletWorker already completed (attached job done)!");
+            return;
+        }
+        try {
+            ServletOps.sendImageData(data, jobinfo.getOutputMimeType(),
+                    (HttpServletResponse) asyncContext.getResponse(), logger);
+            logger.debug("Attached job done in: " + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (ServletException e) {
+            logger.error("Servlet error: ", e);
+        } finally {
+            this.completed = true;
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Sends an error because the job this worker was attached to failed.
+     * 
+     * @see digilib.util.JobCoalescer.JobListener#jobFailed(java.lang.Exception)
+     */
+    @Override
+    public synchronized void jobFailed(Exception e) {
+        if (completed) {
+            logger.debug("AsyncServletWorker already completed (attached job failed)!");
+            return;
+        }
+        logger.error("Attached job failed: " + e.getMessage());
+        this.completed = true;
+        Scaler.digilibError(errMsgType, Error.IMAGE, null,
+                (HttpServletResponse) asyncContext.getResponse());
+        asyncContext.complete();
+    }
+
+    /**
+     * Sends "service unavailable" because the job could not be run under the
+     * current load.
+     * 
+     * @param retryAfter
+     */
+    public synchronized void jobRejected(int retryAfter) {
+        if (completed) {
+            logger.debug("AsyncServletWorker already completed (job rejected)!");
+            return;
+        }
+        this.completed = true;
+        try {
+            ServletOps.sendServiceUnavailable(retryAfter, (HttpServletResponse) asyncContext.getResponse());
+        } catch (IOException e) {
+            logger.error("Error sending response: " + e.getMessage());
+        }
+        asyncContext.complete();
+    }
+
     @Override
     public void onStartAsync(AsyncEvent event) throws IOException {
         logger.debug("onStartAsync called (why?)");
@@ -148,13 +399,13 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
     }
 
     @Override
-    public void onError(AsyncEvent event) throws IOException {
+    public synchronized void onError(AsyncEvent event) throws IOException {
         logger.error("AsyncServletWorker onError: " + event.toString());
         if (completed) {
             logger.debug("AsyncServletWorker already completed (TimeOut)!");
             return;
         }
-        imageWorker.stopNow();
+        stopWorker();
         this.completed = true;
         Scaler.digilibError(errMsgType, Error.UNKNOWN, null,
                 (HttpServletResponse) asyncContext.getResponse());
@@ -162,7 +413,7 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
     }
 
     @Override
-    public void onTimeout(AsyncEvent event) throws IOException {
+    public synchronized void onTimeout(AsyncEvent event) throws IOException {
         logger.error("AsyncServletWorker TIMED OUT after "
                 + (System.currentTimeMillis() - startTime)
                 + "ms! (increase worker-timeout?)");
@@ -170,7 +421,7 @@ public class AsyncServletWorker implements Runnable, AsyncListener {
             logger.debug("AsyncServletWorker already completed (TimeOut)!");
             return;
         }
-        imageWorker.stopNow();
+        stopWorker();
         this.completed = true;
         Scaler.digilibError(errMsgType, Error.UNKNOWN, "ERROR: timeout rendering image!",
                 (HttpServletResponse) asyncContext.getResponse());
@@ -51,7 +51,11 @@ import digilib.image.ImageOpException;
 import digilib.io.DocuDirCache;
 import digilib.io.DocuDirectory;
 import digilib.io.ImageInput;
+import digilib.util.AdaptiveQuality;
+import digilib.util.AdmissionController;
 import digilib.util.DigilibJobCenter;
+import digilib.util.ImageResultCache;
+import digilib.util.JobCoalescer;
 
 @WebServlet(name = "Scaler", urlPatterns = { "/Scaler", "/servlet/Scaler/*" }, asyncSupported = true)
 public class Scaler extends HttpServlet {
@@ -89,6 +93,21 @@ public class Scaler extends HttpServlet {
     /** Image executor */
     protected DigilibJobCenter<DocuImage> imageJobCenter;
 
+    /** cache for result images (may be null) */
+    protected ImageResultCache imageCache;
+
+    /** coalescer for identical image jobs (may be null) */
+    protected JobCoalescer<byte[]> jobCoalescer;
+
+    /** memory budget for image jobs (may be null) */
+    protected AdmissionController admission;
+
+    /** quality degradation under load (may be null) */
+    protected AdaptiveQuality adaptiveQuality;
+
+    /** time after which an overloaded request should be retried (s) */
+    protected int retryAfter;
+
     /** authentication error image file */
     public static File denyImgFile;
 
@@ -145,6 +164,19 @@ public class Scaler extends HttpServlet {
         // Executor
         imageJobCenter = (DigilibJobCenter<DocuImage>) dlConfig.getValue("servlet.worker.imageexecutor");
 
+        // result image cache
+        imageCache = (ImageResultCache) dlConfig.getValue("servlet.image.cache");
+
+        // coalescer for identical jobs
+        jobCoalescer = (JobCoalescer<byte[]>) dlConfig.getValue("servlet.worker.coalescer");
+
+        // memory budget for jobs
+        admission = (AdmissionController) dlConfig.getValue("servlet.worker.admission");
+        retryAfter = dlConfig.getAsInt("worker-retry-after");
+
+        // lower quality under load
+        adaptiveQuality = (AdaptiveQuality) dlConfig.getValue("servlet.worker.quality");
+
         denyImgFile = ServletOps.getFile(dlConfig.getAsFile("denied-image"), context);
         errorImgFile = ServletOps.getFile(dlConfig.getAsFile("error-image"), context);
         notfoundImgFile = ServletOps.getFile(dlConfig.getAsFile("notfound-image"), context);
@@ -295,22 +327,111 @@ public class Scaler extends HttpServlet {
                 return;
             }
 
-            // check load of workers
-            if (imageJobCenter.isBusy()) {
+            // send the image from the cache if we rendered it before
+            if (imageCache != null) {
+                byte[] data = imageCache.get(jobTicket.getImageCacheKey());
+                if (data != null) {
+                    logger.debug("Sending cached image.");
+                    // cached images have full quality
+                    response.setHeader("X-Digilib-Quality", jobTicket.getQualityDescription());
+                    ServletOps.sendImageData(data, jobTicket.getOutputMimeType(), response, logger);
+                    logger.info("Done in " + (System.currentTimeMillis() - startTime) + "ms");
+                    return;
+                }
+            }
+
+            // lower the quality under load
+            if (adaptiveQuality != null) {
+                jobTicket.setDegradation(adaptiveQuality.getLevel());
+            }
+            response.setHeader("X-Digilib-Quality", jobTicket.getQualityDescription());
+
+            // key of the result for the cache and identical jobs that are already running
+            String imageKey = null;
+            if (imageCache != null || jobCoalescer != null) {
+                imageKey = jobTicket.getImageCacheKey();
+            }
+            String jobKey = (jobCoalescer != null) ? imageKey : null;
+
+            // check load of workers for the cost of this job (attaching to a running job is always possible)
+            double cost = jobTicket.getEstimatedCost();
+            boolean attach = (jobKey != null && jobCoalescer.isRunning(jobKey));
+            if (imageJobCenter.isBusy(cost) && !attach) {
                 logger.error("Servlet overloaded!");
-                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                ServletOps.sendServiceUnavailable(retryAfter, response);
                 return;
             }
 
-            // worker job is done asynchronously
-            AsyncContext asyncCtx = request.startAsync(request, response);
-            // create job
-            AsyncServletWorker job = new AsyncServletWorker(dlConfig, jobTicket, asyncCtx, errMsgType, startTime);
-            // AsyncServletWorker is its own AsyncListener
-            asyncCtx.addListener(job);
-            // submit job
-            imageJobCenter.submit(job);
-            // we're done for now
+            // reserve the estimated memory of the job
+            int memReservation = 0;
+            if (admission != null && !attach) {
+                memReservation = admission.tryAdmit(jobTicket.getEstimatedMemory());
+                if (memReservation < 0) {
+                    logger.error("Not enough memory for image job!");
+                    ServletOps.sendServiceUnavailable(retryAfter, response);
+                    return;
+                }
+            }
+
+            boolean submitted = false;
+            AsyncServletWorker job = null;
+            boolean leader = false;
+            boolean rejected = false;
+            try {
+                // worker job is done asynchronously
+                AsyncContext asyncCtx = request.startAsync(request, response);
+                // create job
+                job = new AsyncServletWorker(dlConfig, jobTicket, asyncCtx, errMsgType, startTime);
+                // AsyncServletWorker is its own AsyncListener
+                asyncCtx.addListener(job);
+                job.setImageKey(imageKey);
+                if (jobKey != null && !jobCoalescer.join(jobKey, job)) {
+                    // the running job sends our result
+                    logger.debug("Attached to running job.");
+                    return;
+                }
+                leader = true;
+                if (attach) {
+                    // the running job finished before we could attach: check like a new job
+                    if (imageJobCenter.isBusy(cost)) {
+                        logger.error("Servlet overloaded!");
+                        rejected = true;
+                        return;
+                    }
+                    if (admission != null) {
+                        memReservation = admission.tryAdmit(jobTicket.getEstimatedMemory());
+                        if (memReservation < 0) {
+                            logger.error("Not enough memory for image job!");
+                            memReservation = 0;
+                            rejected = true;
+                            return;
+                        }
+                    }
+                }
+                job.setJobKey(jobKey);
+                // the job releases the memory when it is done
+                job.setMemoryReservation(memReservation);
+                // submit job
+                imageJobCenter.submit(job, cost);
+                submitted = true;
+                // we're done for now
+            } finally {
+                if (!submitted && admission != null) {
+                    admission.release(memReservation);
+                }
+                if (leader && !submitted) {
+                    // the job will never run: fail the attached jobs and our own
+                    Exception e = new ImageOpException("Unable to submit image job!");
+                    if (jobKey != null) {
+                        jobCoalescer.fail(jobKey, e);
+                    }
+                    if (rejected) {
+                        job.jobRejected(retryAfter);
+                    } else {
+                        job.jobFailed(e);
+                    }
+                }
+            }
 
         } catch (ImageOpException e) {
             logger.error(e.getClass() + ": " + e.getMessage());
@@ -0,0 +1,599 @@
+package digilib.tools;
+
+/*
+ * #%L
+ * Command line generator for scaled image directories.
+ * %%
+ * Copyright (C) 2026 MPIWG Berlin
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import digilib.conf.DigilibConfiguration;
+import digilib.image.DocuImage;
+import digilib.image.ImageJobDescription;
+import digilib.image.ImageWorker;
+import digilib.io.FileOps;
+import digilib.io.FileOps.FileClass;
+import digilib.io.ImageFile;
+import digilib.util.ImageSize;
+
+/**
+ * Generates the scaled versions of all images in a base directory for the
+ * other directories in basedir-list.
+ *
+ * Each target directory has a maximum image size. The scaled image is written
+ * to the same relative path in the target directory with the same basename.
+ * Images that already fit the size are not scaled.
+ *
+ * The images are scaled with ImageWorker and the configured DocuImage class
+ * from digilib.properties. The targets are generated from largest to smallest
+ * size, each from the previous scaled image.
+ *
+ * Scaled images that are newer than their source are not generated again.
+ * Finished source files can be recorded in a journal file so that an
+ * interrupted run can be resumed without checking the targets again.
+ *
+ * Usage: DerivativeGenerator [-threads N] [-quality Q] [-format jpeg|png]
+ * [-journal FILE] [-stats SECONDS] basedir targetdir=size...
+ *
+ * @author agent
+ *
+ */
+public class DerivativeGenerator {
+
+    protected static Logger logger = Logger.getLogger(DerivativeGenerator.class);
+
+    /**
+     * A target directory with its maximum image size.
+     */
+    public static class Target {
+        protected File dir;
+        protected int size;
+
+        public Target(File dir, int size) {
+            this.dir = dir;
+            this.size = size;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public String toString() {
+            return dir + "=" + size;
+        }
+    }
+
+    /** digilib configuration with DocuImage class */
+    protected DigilibConfiguration dlConfig;
+
+    /** the base directory with the source images */
+    protected File baseDir;
+
+    /** the target directories ordered by descending size */
+    protected List<Target> targets;
+
+    /** number of worker threads */
+    protected int numThreads;
+
+    /** mime-type of the scaled images */
+    protected String mimeType = "image/jpeg";
+
+    /** file extension of the scaled images */
+    protected String extension = "jpg";
+
+    /** interval for statistics (s) */
+    protected int statsInterval = 10;
+
+    /** journal file (or null) */
+    protected File journalFile = null;
+
+    /** writer for the journal */
+    protected Writer journal = null;
+
+    /** modification time by relative path of files finished in the journal */
+    protected Map<String, Long> finished = new HashMap<String, Long>();
+
+    /** the worker threads */
+    protected ExecutorService executor;
+
+    /** limits the number of queued files */
+    protected Semaphore slots;
+
+    /** number of source files found */
+    protected AtomicInteger numFiles = new AtomicInteger(0);
+
+    /** number of source files with new scaled images */
+    protected AtomicInteger numDone = new AtomicInteger(0);
+
+    /** number of source files that were up to date */
+    protected AtomicInteger numSkipped = new AtomicInteger(0);
+
+    /** number of source files with errors */
+    protected AtomicInteger numFailed = new AtomicInteger(0);
+
+    /** number of scaled images written */
+    protected AtomicInteger numImages = new AtomicInteger(0);
+
+    /** bytes of source files read */
+    protected AtomicLong bytesRead = new AtomicLong(0);
+
+    /** bytes of scaled images written */
+    protected AtomicLong bytesWritten = new AtomicLong(0);
+
+    /** all source files have been found */
+    protected volatile boolean walkFinished = false;
+
+    /** time the run was started */
+    protected long startTime;
+
+    /**
+     * Creates a generator for the images in baseDir.
+     *
+     * @param dlConfig
+     *            configured digilib configuration
+     * @param baseDir
+     *            base directory with the source images
+     * @param targets
+     *            target directories with sizes
+     * @param numThreads
+     *            number of worker threads
+     */
+    public DerivativeGenerator(DigilibConfiguration dlConfig, File baseDir, List<Target> targets, int numThreads) {
+        this.dlConfig = dlConfig;
+        this.baseDir = baseDir;
+        this.targets = new ArrayList<Target>(targets);
+        // largest first
+        Collections.sort(this.targets, new Comparator<Target>() {
+            @Override
+            public int compare(Target t1, Target t2) {
+                return (t1.size > t2.size) ? -1 : ((t1.size == t2.size) ? 0 : 1);
+            }
+        });
+        this.numThreads = Math.max(numThreads, 1);
+    }
+
+    /**
+     * Sets the mime-type of the scaled images (image/jpeg or image/png).
+     *
+     * @param mt
+     */
+    public void setMimeType(String mt) {
+        if (mt.equals("image/png")) {
+            mimeType = mt;
+            extension = "png";
+        } else {
+            mimeType = "image/jpeg";
+            extension = "jpg";
+        }
+    }
+
+    /**
+     * Sets the journal file for resuming.
+     *
+     * @param journalFile
+     */
+    public void setJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Sets the interval for logging statistics (s).
+     *
+     * @param statsInterval
+     */
+    public void setStatsInterval(int statsInterval) {
+        this.statsInterval = statsInterval;
+    }
+
+    /**
+     * Generates the scaled images for all files in the base directory and
+     * waits until they are finished.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        if (!baseDir.isDirectory()) {
+            throw new IOException("Base directory " + baseDir + " not found.");
+        }
+        if (journalFile != null) {
+            readJournal();
+            journal = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+        }
+        logger.info("Generating scaled images of " + baseDir + " for " + targets + " with " + numThreads
+                + " threads");
+        startTime = System.currentTimeMillis();
+        executor = Executors.newFixedThreadPool(numThreads);
+        slots = new Semaphore(numThreads * 2);
+        ScheduledExecutorService statsTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "digilib-generator-stats");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (statsInterval > 0) {
+            statsTimer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logStats();
+                }
+            }, statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+        try {
+            walk(baseDir, "");
+            walkFinished = true;
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            statsTimer.shutdownNow();
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+        logStats();
+    }
+
+    /**
+     * Submits all image files in dir and walks its subdirectories.
+     *
+     * @param dir
+     * @param relPath
+     *            path of dir relative to the base directory
+     * @throws InterruptedException
+     */
+    protected void walk(File dir, String relPath) throws InterruptedException {
+        String[] names = dir.list();
+        if (names == null) {
+            logger.warn("Unable to read directory " + dir);
+            return;
+        }
+        Arrays.sort(names);
+        List<String> subdirs = new ArrayList<String>();
+        for (String n : names) {
+            if (n.startsWith(".")) {
+                continue;
+            }
+            File f = new File(dir, n);
+            String rp = (relPath.length() > 0) ? relPath + "/" + n : n;
+            if (f.isDirectory()) {
+                subdirs.add(rp);
+            } else if (FileOps.classForFilename(n) == FileClass.IMAGE) {
+                numFiles.incrementAndGet();
+                Long mtime = finished.get(rp);
+                if (mtime != null && mtime.longValue() == f.lastModified()) {
+                    // finished in the journal
+                    numSkipped.incrementAndGet();
+                    continue;
+                }
+                submit(f, rp);
+            }
+        }
+        for (String rp : subdirs) {
+            walk(new File(baseDir, rp), rp);
+        }
+    }
+
+    /**
+     * Queues the source file for processing. Blocks while enough files are
+     * queued.
+     *
+     * @param file
+     * @param relPath
+     * @throws InterruptedException
+     */
+    protected void submit(final File file, final String relPath) throws InterruptedException {
+        slots.acquire();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (process(file, relPath)) {
+                        numDone.incrementAndGet();
+                    } else {
+                        numSkipped.incrementAndGet();
+                    }
+                    addToJournal(relPath, file.lastModified());
+                } catch (Exception e) {
+                    numFailed.incrementAndGet();
+                    logger.error("Error processing " + file + ": " + e);
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Generates the missing or outdated scaled images of the source file.
+     * Returns if any image was written.
+     *
+     * @param file
+     * @param relPath
+     * @return
+     * @throws Exception
+     */
+    protected boolean process(File file, String relPath) throws Exception {
+        long mtime = file.lastModified();
+        ImageFile input = new ImageFile(file, null, null);
+        ImageSize srcSize = input.getSize();
+        if (srcSize == null) {
+            throw new IOException("Unable to identify image");
+        }
+        String relDir = FileOps.parent(relPath);
+        String fn = FileOps.basename(file.getName()) + "." + extension;
+        boolean written = false;
+        boolean readSource = false;
+        for (Target t : targets) {
+            if (srcSize.getWidth() <= t.size && srcSize.getHeight() <= t.size) {
+                // the source is small enough
+                continue;
+            }
+            File outDir = (relDir.length() > 0) ? new File(t.dir, relDir) : t.dir;
+            File outFile = new File(outDir, fn);
+            if (outFile.lastModified() < mtime) {
+                if (input.getFile() == file) {
+                    readSource = true;
+                }
+                generate(input, outFile, t.size);
+                written = true;
+            }
+            // scale the next target from this one
+            input = new ImageFile(outFile, null, null);
+        }
+        if (readSource) {
+            bytesRead.addAndGet(file.length());
+        }
+        return written;
+    }
+
+    /**
+     * Scales the input image to fit size and writes it to outFile.
+     *
+     * @param input
+     * @param outFile
+     * @param size
+     * @throws Exception
+     */
+    protected void generate(ImageFile input, File outFile, int size) throws Exception {
+        File outDir = outFile.getParentFile();
+        if (!outDir.isDirectory() && !outDir.mkdirs() && !outDir.isDirectory()) {
+            throw new IOException("Unable to create directory " + outDir);
+        }
+        ImageJobDescription job = new ImageJobDescription(dlConfig);
+        job.setValue("dw", size);
+        job.setValue("dh", size);
+        job.setInput(input);
+        DocuImage img = new ImageWorker(dlConfig, job).call();
+        if (img == null) {
+            throw new IOException("Unable to scale " + input);
+        }
+        // write to temporary file and rename so that aborted images are not used
+        File tmpFile = new File(outDir, "." + outFile.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            img.writeImage(mimeType, out);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(outFile)) {
+                // some platforms don't replace existing files
+                outFile.delete();
+                if (!tmpFile.renameTo(outFile)) {
+                    throw new IOException("Unable to rename " + tmpFile + " to " + outFile);
+                }
+            }
+        } finally {
+            img.dispose();
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+            tmpFile.delete();
+        }
+        numImages.incrementAndGet();
+        bytesWritten.addAndGet(outFile.length());
+        logger.debug("Wrote " + outFile);
+    }
+
+    /**
+     * Reads the finished files from the journal.
+     *
+     * @throws IOException
+     */
+    protected void readJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int p = line.lastIndexOf('\t');
+                if (p < 1) {
+                    continue;
+                }
+                try {
+                    finished.put(line.substring(0, p), Long.valueOf(line.substring(p + 1)));
+                } catch (NumberFormatException e) {
+                    // incomplete last line
+                }
+            }
+        } finally {
+            in.close();
+        }
+        logger.info("Read " + finished.size() + " finished files from journal " + journalFile);
+    }
+
+    /**
+     * Records the finished source file in the journal.
+     *
+     * @param relPath
+     * @param mtime
+     * @throws IOException
+     */
+    protected void addToJournal(String relPath, long mtime) throws IOException {
+        if (journal == null) {
+            return;
+        }
+        synchronized (journal) {
+            journal.write(relPath + "\t" + mtime + "\n");
+            journal.flush();
+        }
+    }
+
+    /**
+     * Logs progress and throughput.
+     */
+    protected void logStats() {
+        long time = Math.max(System.currentTimeMillis() - startTime, 1);
+        int done = numDone.get();
+        int skipped = numSkipped.get();
+        int failed = numFailed.get();
+        int processed = done + skipped + failed;
+        double fps = processed * 1000d / time;
+        double mbps = bytesRead.get() * 1000d / time / (1024 * 1024);
+        StringBuilder sb = new StringBuilder();
+        sb.append(processed).append("/").append(numFiles.get());
+        if (!walkFinished) {
+            sb.append("+");
+        }
+        sb.append(" files (").append(done).append(" scaled, ").append(skipped).append(" up to date, ")
+                .append(failed).append(" failed), ").append(numImages.get()).append(" images written, ");
+        sb.append(String.format("%.1f files/s, %.1f MB/s read, %.1f MB written", fps, mbps,
+                bytesWritten.get() / (1024d * 1024d)));
+        if (walkFinished && fps > 0) {
+            long eta = (long) ((numFiles.get() - processed) / fps);
+            sb.append(", ").append(eta).append("s remaining");
+        }
+        logger.info(sb.toString());
+    }
+
+    /**
+     * Prints usage and exits.
+     */
+    protected static void usage() {
+        System.err.println("Usage: DerivativeGenerator [-threads N] [-quality Q] [-format jpeg|png] "
+                + "[-journal FILE] [-stats SECONDS] basedir targetdir=size...");
+        System.err.println("  Writes the images in basedir scaled to fit size x size to each targetdir.");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int quality = -1;
+        String format = "jpeg";
+        File journalFile = null;
+        int statsInterval = 10;
+        File baseDir = null;
+        List<Target> targets = new ArrayList<Target>();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                String a = args[i];
+                if (a.equals("-threads") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (a.equals("-quality") && i + 1 < args.length) {
+                    quality = Integer.parseInt(args[++i]);
+                } else if (a.equals("-format") && i + 1 < args.length) {
+                    format = args[++i];
+                } else if (a.equals("-journal") && i + 1 < args.length) {
+                    journalFile = new File(args[++i]);
+                } else if (a.equals("-stats") && i + 1 < args.length) {
+                    statsInterval = Integer.parseInt(args[++i]);
+                } else if (a.startsWith("-")) {
+                    usage();
+                } else if (baseDir == null) {
+                    baseDir = new File(a);
+                } else {
+                    int p = a.lastIndexOf('=');
+                    if (p < 1) {
+                        usage();
+                    }
+                    targets.add(new Target(new File(a.substring(0, p)), Integer.parseInt(a.substring(p + 1))));
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (baseDir == null || targets.isEmpty()) {
+            usage();
+        }
+        if (!format.equals("jpeg") && !format.equals("jpg") && !format.equals("png")) {
+            usage();
+        }
+        // read digilib.properties and set up DocuImage
+        DigilibConfiguration dlConfig = new DigilibConfiguration();
+        dlConfig.readConfig();
+        dlConfig.configure();
+        Logger.getRootLogger().setLevel(Level.INFO);
+        if (quality >= 0) {
+            dlConfig.setValue("default-quality", quality);
+        }
+        DerivativeGenerator gen = new DerivativeGenerator(dlConfig, baseDir, targets, numThreads);
+        gen.setMimeType(format.equals("png") ? "image/png" : "image/jpeg");
+        gen.setJournal(journalFile);
+        gen.setStatsInterval(statsInterval);
+        try {
+            gen.run();
+        } catch (Exception e) {
+            logger.error("Error generating scaled images: " + e);
+            System.exit(2);
+        }
+        System.exit((gen.numFailed.get() > 0) ? 3 : 0);
+    }
+
+}
@@ -25,7 +25,18 @@
           digilib.conf.DigilibServletConfiguration,
           digilib.conf.DigilibServletRequest,
           digilib.io.DocuDirCache,
+          digilib.io.DocuDirCrawler,
+          digilib.io.ImageInfoIndex,
+          digilib.image.ImageCodecPool,
+          digilib.util.ImageResultCache,
+          digilib.util.JobCoalescer,
+          digilib.util.AdmissionController,
+          digilib.util.AdaptiveQuality,
           digilib.image.DocuImageFactory,
+          digilib.image.ImageStageStats,
+          digilib.util.LatencyHistogram,
+          java.util.Map,
+          java.util.TreeMap,
           java.io.File"%>
 <%!
 // authentication stuff - robert
@@ -55,6 +66,16 @@ dlRequest.setValue("pt", docBean.getNumPages(dlRequest));
 DocuDirCache dirCache = (DocuDirCache) dlConfig.getValue("servlet.dir.cache");
 // image JobCenter
 DigilibJobCenter imageProcessor =  (DigilibJobCenter)dlConfig.getValue("servlet.worker.imageexecutor");        
+// directory crawler
+DocuDirCrawler dirCrawler = (DocuDirCrawler) dlConfig.getValue("servlet.dir.crawler");
+// result image cache
+ImageResultCache imageCache = (ImageResultCache) dlConfig.getValue("servlet.image.cache");
+// coalescer for identical jobs
+JobCoalescer jobCoalescer = (JobCoalescer) dlConfig.getValue("servlet.worker.coalescer");
+// memory budget for image jobs
+AdmissionController admission = (AdmissionController) dlConfig.getValue("servlet.worker.admission");
+// quality degradation under load
+AdaptiveQuality adaptiveQuality = (AdaptiveQuality) dlConfig.getValue("servlet.worker.quality");
 
 %>
 
@@ -121,12 +142,58 @@ DigilibJobCenter imageProcessor =  (DigilibJobCenter)dlConfig.getValue("servlet.
 <table>
   <tr>
     <td>currently waiting</td><td><b><%= imageProcessor.getWaitingJobs() %></b></td>
-    <td></td>
+    <td><% if (!imageProcessor.hasHeavyLane()) { %>(max <%= imageProcessor.getMaxQueueLen() %>)<% } %></td>
   </tr>
   <tr>
     <td>currently running</td><td><b><%= imageProcessor.getRunningJobs() %></b></td>
     <td></td>
   </tr>
+<% if (imageProcessor.hasHeavyLane()) { %>
+  <tr>
+    <td>waiting cheap jobs</td><td><b><%= imageProcessor.getWaitingLightJobs() %></b></td>
+    <td>(max <%= imageProcessor.getMaxQueueLen() %>)</td>
+  </tr>
+  <tr>
+    <td>waiting expensive jobs</td><td><b><%= imageProcessor.getWaitingHeavyJobs() %></b></td>
+    <td>(max <%= imageProcessor.getMaxHeavyQueueLen() %>)</td>
+  </tr>
+  <tr>
+    <td>running expensive jobs</td><td><b><%= imageProcessor.getRunningHeavyJobs() %></b></td>
+    <td>(max <%= imageProcessor.getMaxHeavyThreads() %> threads)</td>
+  </tr>
+<% } %>
+<% if (imageProcessor.isIoMode()) { %>
+  <tr>
+    <td>waiting for CPU</td><td><b><%= imageProcessor.getWaitingCpuJobs() %></b></td>
+    <td>(<%= imageProcessor.getCpuThreads() %> CPU threads, <%= imageProcessor.isVirtualThreads() ? "virtual" : "platform" %> threads)</td>
+  </tr>
+<% } %>
+  <tr>
+    <td>average wait</td><td><b><%= Math.round(imageProcessor.getAverageWait()) %></b></td>
+    <td>ms</td>
+  </tr>
+<% if (adaptiveQuality != null) { %>
+  <tr>
+    <td>quality degradation level</td><td><b><%= adaptiveQuality.getCurrentLevel() %></b></td>
+    <td>(0 means full quality)</td>
+  </tr>
+<% } %>
+<% if (admission != null) { %>
+  <tr>
+    <td>free job memory</td><td><b><%= admission.getFree() / (1024 * 1024) %></b></td>
+    <td>MB (of <%= admission.getBudget() / (1024 * 1024) %> MB budget)</td>
+  </tr>
+  <tr>
+    <td>rejected for memory</td><td><b><%= admission.getRejectedJobs() %></b></td>
+    <td>(total)</td>
+  </tr>
+<% } %>
+<% if (jobCoalescer != null) { %>
+  <tr>
+    <td>attached to running jobs</td><td><b><%= jobCoalescer.getCoalescedJobs() %></b></td>
+    <td>(total)</td>
+  </tr>
+<% } %>
 </table>
 
 <h2>Webapp</h2>
@@ -156,7 +223,143 @@ DigilibJobCenter imageProcessor =  (DigilibJobCenter)dlConfig.getValue("servlet.
 	<td>misses</td><td><b><%= dirCache.getMisses() %></b></td>
     <td></td>
   </tr>
+  <tr>
+	<td></td><td><b><%= dirCache.getSharedLoads() %></b></td>
+    <td>misses waiting for a directory read by another request</td>
+  </tr>
+  <tr>
+	<td>evictions</td><td><b><%= dirCache.getEvictions() %></b></td>
+    <td>directories</td>
+  </tr>
+<% if (dirCache.getSnapshot() != null) { %>
+  <tr>
+	<td>snapshot</td><td><b><%= dirCache.getSnapshot().getNumRestored() %></b></td>
+    <td>directories restored (of <%= dirCache.getSnapshot().size() %>)</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= dirCache.getSnapshot().getNumRejected() %></b></td>
+    <td>directories modified since snapshot</td>
+  </tr>
+<% } %>
+<% if (dirCrawler != null) { %>
+  <tr>
+	<td>crawler</td><td><b><%= dirCrawler.getNumDirs() %></b></td>
+    <td>directories read (<%= dirCrawler.isRunning() ? "running" : "finished" %>)</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= dirCrawler.getNumImages() %></b></td>
+    <td>images identified</td>
+  </tr>
+<% } %>
+<% if (dirCache.getWatcher() != null) { %>
+  <tr>
+	<td>modified</td><td><b><%= dirCache.getWatcher().getNumStale() %></b></td>
+    <td>directories (found by background check)</td>
+  </tr>
+<% } %>
+</table>
+
+<h2>Image index</h2>
+
+<% if (ImageInfoIndex.isEnabled()) { %>
+<table>
+  <tr>
+	<td>size</td><td><b><%= ImageInfoIndex.size() %></b></td>
+    <td>images</td>
+  </tr>
+  <tr>
+	<td>hits</td><td><b><%= ImageInfoIndex.getHits() %></b></td>
+    <td></td>
+  </tr>
+  <tr>
+	<td>misses</td><td><b><%= ImageInfoIndex.getMisses() %></b></td>
+    <td></td>
+  </tr>
+</table>
+<% } else { %>
+<p>not configured</p>
+<% } %>
+
+<h2>Result image cache</h2>
+
+<% if (imageCache != null) { %>
+<table>
+  <tr>
+	<td>size</td><td><b><%= imageCache.size() %></b></td>
+    <td>images in memory</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= imageCache.getMemSize() %></b></td>
+    <td>bytes in memory</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= imageCache.getDiskSize() %></b></td>
+    <td>bytes on disk (approximately)</td>
+  </tr>
+  <tr>
+	<td>hits</td><td><b><%= imageCache.getMemHits() %></b></td>
+    <td>memory</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= imageCache.getDiskHits() %></b></td>
+    <td>disk</td>
+  </tr>
+  <tr>
+	<td>misses</td><td><b><%= imageCache.getMisses() %></b></td>
+    <td></td>
+  </tr>
+</table>
+<% } else { %>
+<p>not configured</p>
+<% } %>
+
+<h2>Image reader and writer pool</h2>
+
+<table>
+  <tr>
+	<td>size</td><td><b><%= ImageCodecPool.getMaxPoolSize() %></b></td>
+    <td>max pooled instances per image type</td>
+  </tr>
+  <tr>
+	<td>hits</td><td><b><%= ImageCodecPool.getReaderHits() %></b></td>
+    <td>readers</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= ImageCodecPool.getWriterHits() %></b></td>
+    <td>writers</td>
+  </tr>
+  <tr>
+	<td>misses</td><td><b><%= ImageCodecPool.getReaderMisses() %></b></td>
+    <td>readers</td>
+  </tr>
+  <tr>
+	<td></td><td><b><%= ImageCodecPool.getWriterMisses() %></b></td>
+    <td>writers</td>
+  </tr>
+</table>
+
+<h2>Image processing stages</h2>
+
+<% if (!ImageStageStats.getHistograms().isEmpty()) { %>
+<table>
+  <tr>
+    <td><b>stage | source type | backend</b></td><td><b>count</b></td>
+    <td><b>mean / median / 95% / max (ms)</b></td>
+  </tr>
+<%
+  Map<String, LatencyHistogram> stageStats = new TreeMap<String, LatencyHistogram>(ImageStageStats.getHistograms());
+  for (Map.Entry<String, LatencyHistogram> e : stageStats.entrySet()) {
+      LatencyHistogram h = e.getValue();
+%>
+  <tr>
+    <td><%= e.getKey() %></td><td><b><%= h.getCount() %></b></td>
+    <td><%= Math.round(h.getMeanMillis()) %> / <%= h.getMedianMillis() %> / <%= h.getPercentile95Millis() %> / <%= Math.round(h.getMaxMillis()) %></td>
+  </tr>
+<% } %>
 </table>
+<% } else { %>
+<p>no images processed</p>
+<% } %>
 
 <h2>JVM configuration</h2>
 